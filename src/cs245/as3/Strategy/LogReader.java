@@ -0,0 +1,114 @@
+package cs245.as3.Strategy;
+
+import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
+import cs245.as3.log.LsnLogAdapter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description:
+ * 带预读缓冲的顺序日志读取器，恢复时使用
+ * 每次按日志允许的最大长度 128 字节整块读取，调用方按字节流解析记录，记录可以跨越块边界，
+ * 读取次数只与扫描的字节数有关，与记录条数无关
+ */
+public class LogReader {
+
+    // 单次 readLogRecord 允许的最大长度
+    public static final int CHUNK_SIZE = 128;
+
+    private final LsnLogManager logManager;
+
+    private final long end;
+
+    // 下一个要读取的字节在日志中的位置
+    private long position;
+
+    // 复用的块缓冲区，日志直接读入其中
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+
+    private long chunkStart;
+
+    private int chunkLength;
+
+    public LogReader(LogManager lm, int start) {
+        this(LsnLogAdapter.of(lm), start);
+    }
+
+    public LogReader(LsnLogManager lm, long start) {
+        this.logManager = lm;
+        this.end = lm.getEndLsn();
+        this.position = start;
+        this.chunkStart = start;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long end() {
+        return end;
+    }
+
+    public long remaining() {
+        return end - position;
+    }
+
+    public boolean hasRemaining() {
+        return position < end;
+    }
+
+    /**
+     * 跳过 n 个字节，跳过的部分不在当前块内时不会被读取
+     */
+    public void skip(int n) {
+        position += n;
+    }
+
+    public byte get() {
+        fill();
+        return chunk[(int) (position++ - chunkStart)];
+    }
+
+    public int getInt() {
+        return ((get() & 0xff) << 24) | ((get() & 0xff) << 16) | ((get() & 0xff) << 8) | (get() & 0xff);
+    }
+
+    public long getLong() {
+        return ((long) getInt() << 32) | (getInt() & 0xffffffffL);
+    }
+
+    public void get(byte[] dst, int offset, int length) {
+        while (length > 0) {
+            fill();
+            int n = (int) Math.min(length, chunkStart + chunkLength - position);
+            System.arraycopy(chunk, (int) (position - chunkStart), dst, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public byte[] read(int length) {
+        byte[] bytes = new byte[length];
+        get(bytes, 0, length);
+        return bytes;
+    }
+
+    // 当前位置不在已读取的块内时，从当前位置开始整块读取
+    private void fill() {
+        if (position >= chunkStart && position < chunkStart + chunkLength) {
+            return;
+        }
+        if (position >= end) {
+            throw new IndexOutOfBoundsException("Log position " + position + " beyond log end offset " + end);
+        }
+        chunkStart = position;
+        chunkLength = (int) Math.min(CHUNK_SIZE, end - position);
+        chunkBuffer.clear();
+        chunkBuffer.limit(chunkLength);
+        logManager.read(position, chunkBuffer);
+    }
+}
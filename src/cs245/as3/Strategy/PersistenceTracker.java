@@ -0,0 +1,157 @@
+package cs245.as3.Strategy;
+
+import cs245.as3.util.LongHashMap;
+import cs245.as3.util.LongLongHashMap;
+
+/**
+ * @Description:
+ * 日志截断位置的内存记录
+ * 按提交顺序记录每个已提交事务的日志起始位置(tag)和尚未持久化的写操作数，
+ * 截断位置 = 最早一个仍有未持久化写操作的事务的 tag，所有事务都已持久化时为最后一个已提交事务的结束位置，
+ * writePersisted 回调路径上不读取日志；队列为两个基本类型数组组成的环形队列，稳态下 track / persisted 不分配对象
+ * coalesced 模式下 StorageManager 可能合并同一个 key 的多个排队版本，只回调最新的 tag，
+ * 此时额外按 key 记录尚未持久化的 tag，一次回调释放该 key 所有不大于回调 tag 的版本
+ */
+public class PersistenceTracker {
+
+    // 按 tag 递增排列的已提交事务，下标为 序号 & (容量 - 1)
+    private long[] tags = new long[64];
+
+    private int[] remaining = new int[64];
+
+    // 队首、队尾的序号，序号只增不减
+    private long head;
+
+    private long tail;
+
+    // tag -> 该事务在队列中的序号
+    private final LongLongHashMap byTag = new LongLongHashMap(-1);
+
+    // 最后一个已提交事务在日志中的结束位置
+    private long committedEnd = 0;
+
+    // key -> 该 key 已交给 StorageManager 但尚未持久化的 tag，按 tag 递增；只在 coalesced 模式下使用
+    private LongHashMap<KeyTags> pendingByKey;
+
+    private static class KeyTags {
+        long[] tags = new long[4];
+        int head;
+        int size;
+
+        void add(long tag) {
+            if (size == tags.length) {
+                long[] grown = new long[size << 1];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = tags[(head + i) & (tags.length - 1)];
+                }
+                tags = grown;
+                head = 0;
+            }
+            tags[(head + size++) & (tags.length - 1)] = tag;
+        }
+
+        long peek() {
+            return tags[head];
+        }
+
+        long poll() {
+            long tag = tags[head];
+            head = (head + 1) & (tags.length - 1);
+            size--;
+            return tag;
+        }
+    }
+
+    public void setCoalesced(boolean coalesced) {
+        pendingByKey = coalesced ? new LongHashMap<>() : null;
+    }
+
+    /**
+     * 记录一个已完整写入日志的事务
+     * @param tag 事务第一条日志记录的位置
+     * @param writes 该事务交给 StorageManager 的写操作数
+     * @param end 事务最后一条日志记录之后的位置
+     */
+    public void track(long tag, int writes, long end) {
+        committedEnd = Math.max(committedEnd, end);
+        if (writes <= 0) {
+            return;
+        }
+        if (tail - head == tags.length) {
+            grow();
+        }
+        int i = index(tail);
+        tags[i] = tag;
+        remaining[i] = writes;
+        byTag.put(tag, tail++);
+    }
+
+    /**
+     * 一个 tag 为 persisted_tag 的写操作已持久化
+     * @return 新的可截断位置，未知的 tag 返回 -1
+     */
+    public long persisted(long persisted_tag) {
+        long seq = byTag.get(persisted_tag);
+        if (seq < 0) {
+            return -1;
+        }
+        if (--remaining[index(seq)] == 0) {
+            byTag.remove(persisted_tag);
+        }
+        while (head < tail && remaining[index(head)] == 0) {
+            head++;
+        }
+        return head == tail ? committedEnd : tags[index(head)];
+    }
+
+    /**
+     * 记录 key 的一个 tag 为 tag 的写操作已交给 StorageManager，非 coalesced 模式下什么也不做
+     */
+    public void queued(long key, long tag) {
+        if (pendingByKey == null) {
+            return;
+        }
+        KeyTags pending = pendingByKey.get(key);
+        if (pending == null) {
+            pending = new KeyTags();
+            pendingByKey.put(key, pending);
+        }
+        pending.add(tag);
+    }
+
+    /**
+     * key 的 tag 为 persisted_tag 的写操作已持久化；coalesced 模式下该 key 更早排队的版本也一并视为已持久化
+     * @return 新的可截断位置，未知的 tag 返回 -1
+     */
+    public long persisted(long key, long persisted_tag) {
+        if (pendingByKey == null) {
+            return persisted(persisted_tag);
+        }
+        KeyTags pending = pendingByKey.get(key);
+        long offset = -1;
+        while (pending != null && pending.size > 0 && pending.peek() <= persisted_tag) {
+            offset = Math.max(offset, persisted(pending.poll()));
+        }
+        if (pending != null && pending.size == 0) {
+            pendingByKey.remove(key);
+        }
+        return offset;
+    }
+
+    private int index(long seq) {
+        return (int) seq & (tags.length - 1);
+    }
+
+    // 容量翻倍，序号不变，只按新容量重新摆放
+    private void grow() {
+        long[] oldTags = tags;
+        int[] oldRemaining = remaining;
+        tags = new long[oldTags.length << 1];
+        remaining = new int[tags.length];
+        for (long seq = head; seq < tail; seq++) {
+            int from = (int) seq & (oldTags.length - 1);
+            tags[index(seq)] = oldTags[from];
+            remaining[index(seq)] = oldRemaining[from];
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cs245.as3.Strategy;
+
+import java.util.Arrays;
+
+/**
+ * @Description:
+ * 恢复扫描阶段得到的已提交写操作，按日志顺序保存
+ * 同一个事务的写操作连续存放且 tag 相同，事务结束时调用 commit 记录该事务在日志中的结束位置
+ */
+public class RedoRecords {
+
+    private long[] keys = new long[64];
+
+    private long[] tags = new long[64];
+
+    private byte[][] values = new byte[64][];
+
+    private int size;
+
+    private long[] txnTags = new long[16];
+
+    private long[] txnEnds = new long[16];
+
+    private int txnCount;
+
+    public void add(long key, long tag, byte[] value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            tags = Arrays.copyOf(tags, size << 1);
+            values = Arrays.copyOf(values, size << 1);
+        }
+        keys[size] = key;
+        tags[size] = tag;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * 一个已提交事务的写操作已全部 add
+     * @param tag 事务第一条日志记录的位置
+     * @param end 事务最后一条日志记录之后的位置
+     */
+    public void commit(long tag, long end) {
+        if (txnCount == txnTags.length) {
+            txnTags = Arrays.copyOf(txnTags, txnCount << 1);
+            txnEnds = Arrays.copyOf(txnEnds, txnCount << 1);
+        }
+        txnTags[txnCount] = tag;
+        txnEnds[txnCount] = end;
+        txnCount++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long key(int i) {
+        return keys[i];
+    }
+
+    public long tag(int i) {
+        return tags[i];
+    }
+
+    public byte[] value(int i) {
+        return values[i];
+    }
+
+    public int transactions() {
+        return txnCount;
+    }
+
+    public long transactionTag(int txn) {
+        return txnTags[txn];
+    }
+
+    public long transactionEnd(int txn) {
+        return txnEnds[txn];
+    }
+}
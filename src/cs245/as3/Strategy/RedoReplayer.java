@@ -0,0 +1,175 @@
+package cs245.as3.Strategy;
+
+import cs245.as3.interfaces.StorageManager;
+import cs245.as3.store.ValueTable;
+import cs245.as3.util.LongLongHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description:
+ * 恢复的重放阶段，把扫描得到的已提交写操作交给 StorageManager 并写入已提交值索引
+ * threads > 1 时按 key 的哈希把写操作分到 threads 个分区，在 ForkJoinPool 中并行重放，
+ * 同一个 key 只会落在一个分区内并按日志顺序处理；每个分区记录各 key 最后一次写操作，最后单线程合并到已提交值索引
+ * latestVersionOnly 时先做一遍分析，每个 key 只重放日志中最新的一次已提交写操作，被覆盖的旧版本不再交给 StorageManager
+ * skipPersisted 时，重放前已提交值索引中保存的是 readStoredTable 的结果，tag 不小于日志记录 tag 的 key 已经持久化过该版本或更新的版本，直接跳过
+ */
+public class RedoReplayer {
+
+    private final int threads;
+
+    private boolean latestVersionOnly = false;
+
+    private boolean skipPersisted = false;
+
+    // 最近一次 replay 因为已持久化而跳过的写操作数
+    private int skippedWrites;
+
+    public RedoReplayer() {
+        this(1);
+    }
+
+    public RedoReplayer(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setLatestVersionOnly(boolean latestVersionOnly) {
+        this.latestVersionOnly = latestVersionOnly;
+    }
+
+    public void setSkipPersisted(boolean skipPersisted) {
+        this.skipPersisted = skipPersisted;
+    }
+
+    public int getSkippedWrites() {
+        return skippedWrites;
+    }
+
+    /**
+     * 与提交一样，先由 strategy 登记重放的事务，再把写操作交给 StorageManager，
+     * 后台持久化线程在恢复期间回调的 tag 总是已经登记过的
+     * @param latestValues 已经导入 readStoredTable 结果的已提交值索引
+     * @return 每个写操作是否真正交给了 StorageManager
+     */
+    public boolean[] replay(RedoRecords records, StorageManager sm, ValueTable latestValues, Strategy strategy) {
+        boolean[] apply = select(records);
+        skippedWrites = 0;
+        if (skipPersisted) {
+            for (int i = 0; i < records.size(); i++) {
+                if (apply[i] && latestValues.getTag(records.key(i)) >= records.tag(i)) {
+                    apply[i] = false;
+                    skippedWrites++;
+                }
+            }
+        }
+
+        strategy.trackReplayed(records, apply);
+
+        if (threads == 1) {
+            for (int i = 0; i < records.size(); i++) {
+                if (!apply[i]) {
+                    continue;
+                }
+                // 恢复持久化
+                sm.queueWrite(records.key(i), records.tag(i), records.value(i));
+
+                // 恢复事务
+                latestValues.put(records.key(i), records.tag(i), records.value(i));
+            }
+        } else {
+            replayParallel(records, apply, sm, latestValues);
+        }
+
+        return apply;
+    }
+
+    // 选出需要重放的写操作
+    private boolean[] select(RedoRecords records) {
+        boolean[] apply = new boolean[records.size()];
+        if (!latestVersionOnly) {
+            Arrays.fill(apply, true);
+            return apply;
+        }
+        // 分析阶段：key -> 该 key 在日志中最后一次已提交写操作的下标
+        LongLongHashMap latest = new LongLongHashMap(-1);
+        for (int i = 0; i < records.size(); i++) {
+            latest.put(records.key(i), i);
+        }
+        latest.forEach((key, i) -> apply[(int) i] = true);
+        return apply;
+    }
+
+    private void replayParallel(RedoRecords records, boolean[] apply, StorageManager sm, ValueTable latestValues) {
+        int[][] partitions = partition(records, apply);
+
+        List<Callable<LongLongHashMap>> tasks = new ArrayList<>();
+        for (int[] partition : partitions) {
+            tasks.add(() -> {
+                // key -> 该 key 在 records 中最后一次写操作的下标
+                LongLongHashMap latest = new LongLongHashMap(-1);
+                for (int i : partition) {
+                    sm.queueWrite(records.key(i), records.tag(i), records.value(i));
+                    latest.put(records.key(i), i);
+                }
+                return latest;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<LongLongHashMap> future : pool.invokeAll(tasks)) {
+                future.get().forEach((key, i) -> latestValues.put(key, records.tag((int) i), records.value((int) i)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // 等待工作线程退出，避免线程继续持有已结束的重放任务
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // 按 key 的哈希分区，分区内保持日志顺序
+    private int[][] partition(RedoRecords records, boolean[] apply) {
+        int[] counts = new int[threads];
+        for (int i = 0; i < records.size(); i++) {
+            if (apply[i]) {
+                counts[partitionOf(records.key(i))]++;
+            }
+        }
+        int[][] partitions = new int[threads][];
+        for (int p = 0; p < threads; p++) {
+            partitions[p] = new int[counts[p]];
+            counts[p] = 0;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (apply[i]) {
+                int p = partitionOf(records.key(i));
+                partitions[p][counts[p]++] = i;
+            }
+        }
+        return partitions;
+    }
+
+    private int partitionOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (h >>> 32), threads);
+    }
+}
@@ -1,10 +1,10 @@
 package cs245.as3.Strategy;
 
 import cs245.as3.TransactionManager;
-import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
 import cs245.as3.interfaces.StorageManager;
+import cs245.as3.store.ValueTable;
 
-import java.util.HashMap;
 
 /**
  * @Author: lhy
@@ -13,9 +13,16 @@ import java.util.HashMap;
  */
 public abstract class Strategy {
 
-    protected LogManager logManager;
+    // 带 checkpoint 的日志格式在每条 record 的标志位（第 1 个字节）中设置该位，恢复时据此区分两种格式
+    protected static final byte FLAG_CHECKPOINTED = 8;
 
-    public Strategy(LogManager lm){
+    protected LsnLogManager logManager;
+
+    protected final PersistenceTracker persistenceTracker = new PersistenceTracker();
+
+    protected RedoReplayer replayer = new RedoReplayer();
+
+    public Strategy(LsnLogManager lm){
         logManager  = lm;
     }
 
@@ -25,7 +32,139 @@ public abstract class Strategy {
 
     public abstract void writeRedoLog(TransactionManager.WritesetEntry x,long txID);
 
-    public abstract void Recover(StorageManager sm, LogManager lm, HashMap<Long, StorageManager.TaggedValue> latestValues);
+    public void setReplayer(RedoReplayer replayer) {
+        this.replayer = replayer;
+    }
+
+    /**
+     * StorageManager 可能合并同一个 key 的排队版本、只回调最新的 tag 时打开，需在 Recover 之前调用
+     */
+    public void setCoalescedPersistence(boolean coalesced) {
+        persistenceTracker.setCoalesced(coalesced);
+    }
+
+    /**
+     * 先单线程扫描日志找出已提交事务的写操作，再交给 replayer 重放
+     */
+    public void Recover(StorageManager sm, LsnLogManager lm, ValueTable latestValues) {
+        RedoRecords records = new RedoRecords();
+        scan(new LogReader(lm, lm.getTruncationLsn()), records);
+        replayer.replay(records, sm, latestValues, this);
+    }
+
+    /**
+     * 检查截断位置处第一条 record 的格式，日志是用另一种格式写入的时抛出 IllegalStateException
+     * 空日志可以换用任意格式
+     */
+    protected void checkFormat(LsnLogManager lm, boolean checkpointed) {
+        long truncation = lm.getTruncationLsn();
+        if (lm.getEndLsn() - truncation < 2) {
+            return;
+        }
+        byte flag = lm.read(truncation + 1, 1)[0];
+        if (((flag & FLAG_CHECKPOINTED) != 0) != checkpointed) {
+            throw new IllegalStateException("The log was written " + (checkpointed ? "without" : "with")
+                    + " checkpoints; checkpointInterval must not change until every logged write is persisted");
+        }
+    }
+
+    /**
+     * 从 reader 的当前位置顺序解码日志，按日志顺序把已提交事务的写操作加入 records，未提交的事务丢弃
+     */
+    protected abstract void scan(LogReader reader, RedoRecords records);
+
+    /**
+     * 事务的日志全部写入后调用，记录该事务交给 StorageManager 的写操作数
+     * track 与 updateOffsets 同步，writePersisted 可能来自 StorageManager 的后台持久化线程
+     */
+    public synchronized void track(long tag, int writes) {
+        persistenceTracker.track(tag, writes, logManager.getEndLsn());
+    }
+
+    /**
+     * 恢复时登记重放的事务，在它们的写操作交给 StorageManager 之前调用
+     * apply[i] 表示 records 中第 i 个写操作是否会交给 StorageManager
+     */
+    synchronized void trackReplayed(RedoRecords records, boolean[] apply) {
+        // 同一事务的写操作连续存放，按事务统计实际交给 StorageManager 的写操作数
+        int i = 0;
+        for (int txn = 0; txn < records.transactions(); txn++) {
+            long tag = records.transactionTag(txn);
+            int writes = 0;
+            while (i < records.size() && records.tag(i) == tag) {
+                if (apply[i]) {
+                    writes++;
+                    persistenceTracker.queued(records.key(i), tag);
+                    replayed(records.key(i), tag);
+                }
+                i++;
+            }
+            persistenceTracker.track(tag, writes, records.transactionEnd(txn));
+        }
+    }
+
+    /**
+     * 恢复时 key 的一个 tag 为 tag 的写操作将交给 StorageManager，在 trackReplayed 中调用
+     */
+    protected void replayed(long key, long tag) {
+    }
+
+    /**
+     * 组提交：beginGroup 与 endGroup 之间提交的事务先缓存在内存中，endGroup 时合并成尽量少的追加，每次追加不超过 maxAppendSize 字节
+     * 不支持组提交的策略仍然在 commit 时逐个事务追加
+     */
+    public void beginGroup() {
+    }
 
-    public abstract void updateOffsets(long persisted_tag);
+    public void endGroup(int maxAppendSize) {
+    }
+
+    /**
+     * 下一个事务第一条日志记录的位置，组提交中包括已缓存但尚未追加的 record
+     */
+    public long nextLsn() {
+        return logManager.getEndLsn();
+    }
+
+    /**
+     * 在 queueWrite 之前调用，记录 key 的一个 tag 为 tag 的写操作将交给 StorageManager，只在 coalesced 模式下需要
+     */
+    public synchronized void queued(long key, long tag) {
+        persistenceTracker.queued(key, tag);
+    }
+
+    /**
+     * key 的一个 tag 为 persisted_tag 的写操作已持久化
+     */
+    public synchronized void updateOffsets(long key, long persisted_tag) {
+        truncate(persisted(key, persisted_tag));
+    }
+
+    public synchronized void updateOffsets(long persisted_tag) {
+        truncate(persistenceTracker.persisted(persisted_tag));
+    }
+
+    /**
+     * 一批写操作已持久化，keys[i] 的 tag 为 persisted_tags[i]，截断位置只在整批处理完后更新一次
+     */
+    public synchronized void updateOffsets(long[] keys, long[] persisted_tags, int count) {
+        long offset = -1;
+        for (int i = 0; i < count; i++) {
+            offset = Math.max(offset, persisted(keys[i], persisted_tags[i]));
+        }
+        truncate(offset);
+    }
+
+    /**
+     * 记录一个写操作已持久化，返回新的可截断位置，未知的 tag 返回 -1
+     */
+    protected long persisted(long key, long persisted_tag) {
+        return persistenceTracker.persisted(key, persisted_tag);
+    }
+
+    private void truncate(long offset) {
+        if (offset > logManager.getTruncationLsn()) {
+            logManager.setTruncationLsn(offset);
+        }
+    }
 }
@@ -1,12 +1,10 @@
 package cs245.as3.Strategy;
 
 import cs245.as3.TransactionManager;
-import cs245.as3.interfaces.LogManager;
-import cs245.as3.interfaces.StorageManager;
+import cs245.as3.interfaces.LsnLogManager;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -21,7 +19,7 @@ import java.util.List;
 public class StrategyModel1 extends Strategy {
 
 
-    public StrategyModel1(LogManager lm) {
+    public StrategyModel1(LsnLogManager lm) {
         super(lm);
     }
 
@@ -32,7 +30,7 @@ public class StrategyModel1 extends Strategy {
         prepare.put((byte)1);
         prepare.put((byte)0);
         prepare.putLong(txID);
-        logManager.appendLogRecord(prepare.array());
+        logManager.append(prepare.array());
     }
 
     @Override
@@ -42,7 +40,7 @@ public class StrategyModel1 extends Strategy {
         commit.put((byte)1);
         commit.put((byte)1);
         commit.putLong(txID);
-        logManager.appendLogRecord(commit.array());
+        logManager.append(commit.array());
     }
 
 
@@ -55,43 +53,34 @@ public class StrategyModel1 extends Strategy {
             upLog.putLong(x.key);
             upLog.putInt(x.value.length);
             upLog.put(x.value);
-            logManager.appendLogRecord(upLog.array());
+            logManager.append(upLog.array());
         }else{
             upLog.put((byte)0);
             upLog.put((byte)0);
             upLog.putLong(x.key);
             int len1 = x.value.length/2;
             upLog.putInt(len1);
-            byte[] bytes = new byte[len1];
-            for(int i=0;i<len1;i++){
-                bytes[i] = x.value[i];
-            }
-            upLog.put(bytes);
-            logManager.appendLogRecord(upLog.array());
+            upLog.put(x.value, 0, len1);
+            logManager.append(upLog.array());
             int len2 = x.value.length - len1;
-            bytes = new byte[len2];
-            for(int i = len1;i<x.value.length;i++){
-                bytes[i-len1] = x.value[i];
-            }
             upLog.position(0);
             upLog.put((byte)0);
             upLog.put((byte)1);
             upLog.putLong(x.key);
             upLog.putInt(len2);
-            upLog.put(bytes);
-            logManager.appendLogRecord(upLog.array());
+            upLog.put(x.value, len1, len2);
+            logManager.append(upLog.array());
         }
     }
 
     @Override
-    public void Recover(StorageManager sm, LogManager lm, HashMap<Long, StorageManager.TaggedValue> latestValues) {
-        int index = logManager.getLogTruncationOffset();
+    protected void scan(LogReader reader, RedoRecords records) {
         List<ByteBuffer> recordList = new ArrayList<>();
         long txID_index = 0;
 
-        while(index < lm.getLogEndOffset()){
-            ByteBuffer record = ByteBuffer.allocate(65);
-            record.put(lm.readLogRecord(index,65));
+        while(reader.hasRemaining()){
+            long index = reader.position();
+            ByteBuffer record = ByteBuffer.wrap(reader.read(65));
             // TODO: record 前两位 00 表示一次性事务操作日志 ，01 表示追加性事务操作日志 ， 10 表示事务开始标志 ， 11 表示事务结束日志
             if(record.get(0) == 0){
                 recordList.add(record);
@@ -102,69 +91,33 @@ public class StrategyModel1 extends Strategy {
                 }else{
                     // TODO: 事务操作日志的格式，0-1：标识符  | 2-9：key  |  10-14：value size  |  15 - value size：value
 
+                    long key = 0;
+                    byte[] value = null;
                     for(ByteBuffer bbf : recordList){
                         int data_size = bbf.getInt(10);
-                        long key = bbf.getLong(2);
+                        bbf.position(14);
+                        byte[] bytes = new byte[data_size];
+                        bbf.get(bytes);
                         if(bbf.get(0)==0 && bbf.get(1) == 1){
-                            bbf.position(14);
-                            byte[] bytes = new byte[data_size];
-                            for(int i=0 ;i <data_size;i++){
-                                bytes[i] = bbf.get();
-                            }
-                            byte[] fbytes = latestValues.get(key).value;
-                            byte[] final_value = new byte[fbytes.length + bytes.length];
-                            System.arraycopy(fbytes, 0, final_value, 0, fbytes.length);
-                            System.arraycopy(bytes, 0, final_value, fbytes.length, bytes.length);
-                            // 恢复持久化
-                            sm.queueWrite(key,txID_index,final_value);
-
-                            // 恢复事务
-                            latestValues.put(key, new StorageManager.TaggedValue(txID_index, final_value));
+                            // 追加性记录紧跟在同一个 key 的前半段之后，拼接成完整的 value
+                            byte[] final_value = new byte[value.length + bytes.length];
+                            System.arraycopy(value, 0, final_value, 0, value.length);
+                            System.arraycopy(bytes, 0, final_value, value.length, bytes.length);
+                            value = final_value;
                         }else{
-                            bbf.position(14);
-                            byte[] bytes = new byte[data_size];
-                            for(int i=0 ;i <data_size;i++){
-                                bytes[i] = bbf.get();
+                            if(value != null){
+                                records.add(key, txID_index, value);
                             }
-                            // 恢复持久化
-                            sm.queueWrite(key,txID_index,bytes);
-
-                            // 恢复事务
-                            latestValues.put(key, new StorageManager.TaggedValue(txID_index, bytes));
+                            key = bbf.getLong(2);
+                            value = bytes;
                         }
                     }
-                }
-            }
-            index += 65;
-        }
-    }
-
-    @Override
-    public void updateOffsets(long persisted_tag) {
-
-        if(persisted_tag <= logManager.getLogTruncationOffset() || persisted_tag >= logManager.getLogEndOffset())
-            return;
-
-        int index = (int)persisted_tag;
-        ByteBuffer record = ByteBuffer.allocate(65);
-        record.put(logManager.readLogRecord(index,65));
-        long txID_prepare = record.getLong(2);
-        index+=65;
-        while(index < logManager.getLogEndOffset()){
-            record = ByteBuffer.allocate(65);
-            record.put(logManager.readLogRecord(index,65));
-            if(record.get(0) == 1){
-                if(record.get(1) == 1){
-                    long txID_commit = record.getLong(2);
-                    if(txID_commit == txID_prepare){
-                        logManager.setLogTruncationOffset((int)persisted_tag);
-                        return ;
+                    if(value != null){
+                        records.add(key, txID_index, value);
                     }
-                }else {
-                    return ;
+                    records.commit(txID_index, reader.position());
                 }
             }
-            index += 65;
         }
     }
 }
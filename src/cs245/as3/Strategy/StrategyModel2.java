@@ -1,8 +1,7 @@
 package cs245.as3.Strategy;
 
 import cs245.as3.TransactionManager;
-import cs245.as3.interfaces.LogManager;
-import cs245.as3.interfaces.StorageManager;
+import cs245.as3.interfaces.LsnLogManager;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -21,7 +20,7 @@ import java.util.Map;
  */
 public class StrategyModel2 extends Strategy {
 
-    public StrategyModel2(LogManager lm) {
+    public StrategyModel2(LsnLogManager lm) {
         super(lm);
     }
 
@@ -32,7 +31,7 @@ public class StrategyModel2 extends Strategy {
         prepare.put((byte)1);
         prepare.put((byte)0);
         prepare.putLong(txID);
-        logManager.appendLogRecord(prepare.array());
+        logManager.append(prepare.array());
     }
 
     @Override
@@ -42,7 +41,7 @@ public class StrategyModel2 extends Strategy {
         commit.put((byte)1);
         commit.put((byte)1);
         commit.putLong(txID);
-        logManager.appendLogRecord(commit.array());
+        logManager.append(commit.array());
     }
 
     @Override
@@ -55,24 +54,19 @@ public class StrategyModel2 extends Strategy {
         upLog.put((byte)0);
         upLog.putLong(x.key);
         upLog.put(x.value);
-        logManager.appendLogRecord(upLog.array());
+        logManager.append(upLog.array());
     }
 
     @Override
-    public void Recover(StorageManager sm, LogManager lm, HashMap<Long, StorageManager.TaggedValue> latestValues) {
-        int index = logManager.getLogTruncationOffset()+4;
+    protected void scan(LogReader reader, RedoRecords records) {
         List<ByteBuffer> recordList= new ArrayList<>();
-        Map<Long,Integer> txID_tag_map = new HashMap<>();
+        Map<Long,Long> txID_tag_map = new HashMap<>();
 
-        int len = 10 + 4;
+        while(reader.hasRemaining()){
+            long index = reader.position();
+            int len = reader.getInt();
 
-        while(index<lm.getLogEndOffset()){
-
-            if(index + len > lm.getLogEndOffset())
-                len = len -4;
-
-            ByteBuffer record = ByteBuffer.allocate(len);
-            record.put(lm.readLogRecord(index,len));
+            ByteBuffer record = ByteBuffer.wrap(reader.read(len));
 
             long txID = record.getLong(2);
 
@@ -86,65 +80,13 @@ public class StrategyModel2 extends Strategy {
                     for(ByteBuffer bbf : recordList){
                         long key =  bbf.getLong(2);
                         bbf.position(10);
-                        int data_size = bbf.capacity() - bbf.position()-4;
-                        byte[] bytes = new byte[data_size];
-                        for(int i=0 ;i <data_size;i++){
-                            bytes[i] = bbf.get();
-                        }
-                        // 恢复持久化
-                        sm.queueWrite(key,txID_tag_map.get(txID),bytes);
-
-                        // 恢复事务
-                        latestValues.put(key, new StorageManager.TaggedValue(txID_tag_map.get(txID), bytes));
-                    }
-                }
-            }
-            index=index + len;
-            len = getDataLen(record) + 4;
-        }
-    }
-
-    @Override
-    public void updateOffsets(long persisted_tag) {
-        if(persisted_tag <= logManager.getLogTruncationOffset() || persisted_tag >= logManager.getLogEndOffset())
-            return;
-
-        int index = (int)persisted_tag + 4;
-        int len = 10 + 4;
-        ByteBuffer record = ByteBuffer.allocate(len);
-        record.put(logManager.readLogRecord(index,len));
-        long txID_Prepare = record.getLong(2);
-        index=index + len;
-        len = getDataLen(record) + 4;
-
-        if(record.get(0)==0)
-            return ;
-
-        while(index<logManager.getLogEndOffset()){
-
-            if(index + len > logManager.getLogEndOffset())
-                len = len -4;
-
-            record = ByteBuffer.allocate(len);
-            record.put(logManager.readLogRecord(index,len));
-
-            if(record.get(0) == 1) {
-                if (record.get(1) == 1) {
-                    long txID_commit = record.getLong(2);
-                    if (txID_commit == txID_Prepare) {
-                        logManager.setLogTruncationOffset((int) persisted_tag);
-                        return;
+                        byte[] bytes = new byte[bbf.remaining()];
+                        bbf.get(bytes);
+                        records.add(key,txID_tag_map.get(txID),bytes);
                     }
-                } else {
-                    return;
+                    records.commit(txID_tag_map.get(txID), reader.position());
                 }
             }
-            index=index + len;
-            len = getDataLen(record) + 4;
         }
     }
-
-    private int getDataLen(ByteBuffer byteBuffer){
-        return byteBuffer.getInt(byteBuffer.capacity() - 4);
-    }
 }
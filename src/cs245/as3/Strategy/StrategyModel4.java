@@ -0,0 +1,199 @@
+package cs245.as3.Strategy;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LsnLogManager;
+import cs245.as3.interfaces.StorageManager;
+import cs245.as3.store.ValueTable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description:
+ * 事务持久化策略4
+ * 将一个事务的所有写操作连续编码成字节流，按 128 字节（日志单条记录上限）切分成若干条 record，
+ * 最后一条 record 带 commit 标志，不再单独写 prepare / commit 记录
+ * record 格式，0：record 总长度  | 1：标志位  | 2-9：txID  |  10 - 长度：写操作字节流
+ * 写操作字节流格式，key(8) | value size(4) | value，单个写操作可以跨越多条 record
+ * 优点：每次提交的日志 IOP 数约为 写入字节数 / 118，远少于每个写操作一条记录
+ * 缺点：恢复时需要把一个事务的所有 record 拼接后再解析
+ * 组提交时 record 先缓存在 group 中，endGroup 时按 record 边界把多个事务的 record 拼成尽量少的追加
+ */
+public class StrategyModel4 extends Strategy {
+
+    private static final int RECORD_SIZE = 128;
+
+    private static final int HEADER_SIZE = 10;
+
+    // 事务的第一条 record
+    private static final byte FLAG_FIRST = 1;
+
+    // 事务的最后一条 record，带有该标志说明事务已完整写入日志
+    private static final byte FLAG_COMMIT = 2;
+
+    // 复用的 record 编码缓冲区，整块交给日志追加，不再每条 record 复制一次数组
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+
+    // 追加时传给日志的缓冲区数组，复用以免每次追加分配可变参数数组
+    private final ByteBuffer[] gather = {record};
+
+    private final ByteBuffer entryHeader = ByteBuffer.allocate(12);
+
+    // 组提交中缓存的 record，grouping 为 false 时为空
+    private ByteBuffer group = ByteBuffer.allocate(4096);
+
+    private boolean grouping;
+
+    private long groupStart;
+
+    private long txID;
+
+    private boolean first;
+
+    public StrategyModel4(LsnLogManager lm) {
+        super(lm);
+    }
+
+    @Override
+    public void prepare(long txID) {
+        this.txID = txID;
+        this.first = true;
+        record.clear();
+        record.position(HEADER_SIZE);
+    }
+
+    @Override
+    public void commit(long txID) {
+        flush(FLAG_COMMIT);
+    }
+
+    @Override
+    public void writeRedoLog(TransactionManager.WritesetEntry x, long txID) {
+        entryHeader.clear();
+        entryHeader.putLong(x.key);
+        entryHeader.putInt(x.value.length);
+        write(entryHeader.array(), 0, entryHeader.capacity());
+        write(x.value, 0, x.value.length);
+    }
+
+    /**
+     * 把字节追加到当前 record，record 写满后才追加到日志，保证 commit 时最后一条 record 不为空
+     */
+    private void write(byte[] src, int offset, int length) {
+        while (length > 0) {
+            if (!record.hasRemaining()) {
+                flush((byte) 0);
+            }
+            int n = Math.min(record.remaining(), length);
+            record.put(src, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void flush(byte flag) {
+        if (first) {
+            flag |= FLAG_FIRST;
+        }
+        int len = record.position();
+        record.put(0, (byte) len);
+        record.put(1, flag);
+        record.putLong(2, txID);
+        record.flip();
+        if (grouping) {
+            if (group.remaining() < record.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(group.capacity() << 1);
+                group.flip();
+                grown.put(group);
+                group = grown;
+            }
+            group.put(record);
+        } else {
+            logManager.append(gather);
+        }
+        first = false;
+        record.clear();
+        record.position(HEADER_SIZE);
+    }
+
+    @Override
+    public void beginGroup() {
+        grouping = true;
+        groupStart = logManager.getEndLsn();
+    }
+
+    @Override
+    public long nextLsn() {
+        return grouping ? groupStart + group.position() : logManager.getEndLsn();
+    }
+
+    @Override
+    public void endGroup(int maxAppendSize) {
+        grouping = false;
+        group.flip();
+        ByteBuffer chunk = group.duplicate();
+        try {
+            int start = 0;
+            while (start < group.limit()) {
+                // 单条 record 不超过 RECORD_SIZE，后面的 record 放得下就并入同一次追加
+                int end = start + (group.get(start) & 0xff);
+                while (end < group.limit() && end + (group.get(end) & 0xff) - start <= maxAppendSize) {
+                    end += group.get(end) & 0xff;
+                }
+                chunk.limit(end);
+                chunk.position(start);
+                logManager.append(chunk);
+                start = end;
+            }
+        } finally {
+            group.clear();
+        }
+    }
+
+    @Override
+    public void Recover(StorageManager sm, LsnLogManager lm, ValueTable latestValues) {
+        checkFormat(lm, false);
+        super.Recover(sm, lm, latestValues);
+    }
+
+    @Override
+    protected void scan(LogReader reader, RedoRecords records) {
+
+        TxnBuffer pending = new TxnBuffer();
+        long txID = 0;
+        long tag = -1;
+
+        while (reader.hasRemaining()) {
+            long index = reader.position();
+            int len = reader.get() & 0xff;
+            byte flag = reader.get();
+            long recordTxID = reader.getLong();
+
+            if ((flag & FLAG_FIRST) != 0) {
+                // 新事务开始，之前未提交的残缺事务直接丢弃
+                pending.reset();
+                txID = recordTxID;
+                tag = index;
+            } else if (tag < 0 || recordTxID != txID) {
+                tag = -1;
+            }
+
+            if (tag < 0) {
+                reader.skip(len - HEADER_SIZE);
+            } else {
+                pending.append(reader, len - HEADER_SIZE);
+                if ((flag & FLAG_COMMIT) != 0) {
+                    ByteBuffer bbf = pending.view();
+                    while (bbf.hasRemaining()) {
+                        long key = bbf.getLong();
+                        byte[] value = new byte[bbf.getInt()];
+                        bbf.get(value);
+                        records.add(key, tag, value);
+                    }
+                    records.commit(tag, reader.position());
+                    pending.reset();
+                    tag = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package cs245.as3.Strategy;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LsnLogManager;
+import cs245.as3.interfaces.StorageManager;
+import cs245.as3.store.ValueTable;
+import cs245.as3.util.LongLongHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @Description:
+ * 事务持久化策略5
+ * 在策略4 的打包 record 基础上定期写入模糊 checkpoint（fuzzy checkpoint）
+ * checkpoint 列出当前仍有未持久化写操作的 key，以及每个 key 需要重做的那次写操作所在事务的日志位置
+ * 恢复时从最新的 checkpoint 开始顺序扫描，checkpoint 之前的日志只读取其中列出的事务，
+ * 某个 key 迟迟不能持久化导致截断位置停滞时，恢复代价仍然只与 checkpoint 间隔有关
+ * record 格式，0：record 总长度  | 1：标志位  | 2-9：txID  |  10-17：最新 checkpoint 位置  |  18 - 长度-2：字节流  |  长度-1：record 总长度
+ * 每条 record 末尾重复一次长度，恢复时读取日志最后一块即可定位最后一条 record，从而得到最新 checkpoint 的位置
+ * 每条 record 的标志位都带 FLAG_CHECKPOINTED，恢复前先检查截断位置处的 record，日志由策略4 写入时报错而不是误读
+ * checkpoint 的字节流格式，key(8) | 事务位置(8)
+ */
+public class StrategyModel5 extends Strategy {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1 << 16;
+
+    private static final int RECORD_SIZE = 128;
+
+    private static final int HEADER_SIZE = 18;
+
+    private static final int TRAILER_SIZE = 1;
+
+    private static final byte FLAG_FIRST = 1;
+
+    private static final byte FLAG_COMMIT = 2;
+
+    private static final byte FLAG_CHECKPOINT = 4;
+
+    // 距上一次 checkpoint 写入了这么多字节、且截断位置落后这么多字节时写入新的 checkpoint
+    private final int checkpointInterval;
+
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+
+    private final ByteBuffer[] gather = {record};
+
+    private final ByteBuffer entryHeader = ByteBuffer.allocate(16);
+
+    private long txID;
+
+    private long txnTag;
+
+    private boolean first;
+
+    // FLAG_CHECKPOINT 或 0，附加到当前正在写入的每条 record 上
+    private byte recordKind;
+
+    private long[] txnKeys = new long[16];
+
+    private int txnKeyCount;
+
+    // key -> 该 key 最新一次未持久化写操作所在事务的 tag
+    private final LongLongHashMap dirty = new LongLongHashMap(-1);
+
+    private long lastCheckpoint = -1;
+
+    private long lastCheckpointEnd = 0;
+
+    public StrategyModel5(LsnLogManager lm) {
+        this(lm, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public StrategyModel5(LsnLogManager lm, int checkpointInterval) {
+        super(lm);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @Override
+    public void prepare(long txID) {
+        this.txID = txID;
+        this.txnTag = logManager.getEndLsn();
+        this.txnKeyCount = 0;
+        begin((byte) 0);
+    }
+
+    // dirty 同时被提交线程和持久化回调修改，两者都在 this 上同步
+    @Override
+    public synchronized void commit(long txID) {
+        flush(FLAG_COMMIT, lastCheckpoint);
+        for (int i = 0; i < txnKeyCount; i++) {
+            dirty.put(txnKeys[i], txnTag);
+        }
+        maybeCheckpoint();
+    }
+
+    @Override
+    public void writeRedoLog(TransactionManager.WritesetEntry x, long txID) {
+        if (txnKeyCount == txnKeys.length) {
+            txnKeys = Arrays.copyOf(txnKeys, txnKeyCount << 1);
+        }
+        txnKeys[txnKeyCount++] = x.key;
+        entryHeader.clear();
+        entryHeader.putLong(x.key);
+        entryHeader.putInt(x.value.length);
+        write(entryHeader.array(), 0, 12);
+        write(x.value, 0, x.value.length);
+    }
+
+    // 调用方已在 this 上同步
+    @Override
+    protected void replayed(long key, long tag) {
+        dirty.put(key, tag);
+    }
+
+    @Override
+    protected long persisted(long key, long persisted_tag) {
+        if (dirty.get(key) == persisted_tag) {
+            dirty.remove(key);
+        }
+        return super.persisted(key, persisted_tag);
+    }
+
+    // 截断位置停滞超过一个间隔时才需要 checkpoint
+    private void maybeCheckpoint() {
+        long end = logManager.getEndLsn();
+        if (end - lastCheckpointEnd < checkpointInterval || end - logManager.getTruncationLsn() < checkpointInterval) {
+            return;
+        }
+        long start = end;
+        txID = 0;
+        begin(FLAG_CHECKPOINT);
+        dirty.forEach((key, tag) -> {
+            entryHeader.clear();
+            entryHeader.putLong(key);
+            entryHeader.putLong(tag);
+            write(entryHeader.array(), 0, 16);
+        });
+        // 只有 checkpoint 的最后一条 record 指向它自己，写到一半崩溃时最后一条 record 仍指向上一个 checkpoint
+        flush(FLAG_COMMIT, start);
+        lastCheckpoint = start;
+        lastCheckpointEnd = logManager.getEndLsn();
+    }
+
+    private void begin(byte kind) {
+        recordKind = kind;
+        first = true;
+        reset();
+    }
+
+    private void reset() {
+        record.clear();
+        record.position(HEADER_SIZE);
+        record.limit(RECORD_SIZE - TRAILER_SIZE);
+    }
+
+    private void write(byte[] src, int offset, int length) {
+        while (length > 0) {
+            if (!record.hasRemaining()) {
+                flush((byte) 0, lastCheckpoint);
+            }
+            int n = Math.min(record.remaining(), length);
+            record.put(src, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void flush(byte flag, long checkpoint) {
+        flag |= recordKind | FLAG_CHECKPOINTED;
+        if (first) {
+            flag |= FLAG_FIRST;
+        }
+        int len = record.position() + TRAILER_SIZE;
+        record.limit(RECORD_SIZE);
+        record.put(0, (byte) len);
+        record.put(1, flag);
+        record.putLong(2, txID);
+        record.putLong(10, checkpoint);
+        record.put(len - 1, (byte) len);
+        record.position(0);
+        record.limit(len);
+        logManager.append(gather);
+        first = false;
+        reset();
+    }
+
+    @Override
+    public void Recover(StorageManager sm, LsnLogManager lm, ValueTable latestValues) {
+        checkFormat(lm, true);
+        long truncation = lm.getTruncationLsn();
+        RedoRecords records = new RedoRecords();
+        LogReader reader;
+
+        long checkpoint = findCheckpoint(lm);
+        if (checkpoint < 0) {
+            reader = new LogReader(lm, truncation);
+        } else {
+            reader = new LogReader(lm, checkpoint);
+            // 事务位置 -> 需要从该事务重做的 key，已经被截断的事务说明其写操作都已持久化
+            TreeMap<Long, HashSet<Long>> positions = new TreeMap<>();
+            TxnBuffer group = new TxnBuffer();
+            readGroup(reader, group);
+            ByteBuffer bbf = group.view();
+            while (bbf.hasRemaining()) {
+                long key = bbf.getLong();
+                long position = bbf.getLong();
+                if (position >= truncation) {
+                    positions.computeIfAbsent(position, p -> new HashSet<>()).add(key);
+                }
+            }
+            // checkpoint 之前只读取列出的事务
+            for (Map.Entry<Long, HashSet<Long>> entry : positions.entrySet()) {
+                long tag = entry.getKey();
+                LogReader txnReader = new LogReader(lm, tag);
+                readGroup(txnReader, group);
+                ByteBuffer txn = group.view();
+                while (txn.hasRemaining()) {
+                    long key = txn.getLong();
+                    int size = txn.getInt();
+                    if (entry.getValue().contains(key)) {
+                        byte[] value = new byte[size];
+                        txn.get(value);
+                        records.add(key, tag, value);
+                    } else {
+                        txn.position(txn.position() + size);
+                    }
+                }
+                records.commit(tag, txnReader.position());
+            }
+            lastCheckpoint = checkpoint;
+        }
+
+        scan(reader, records);
+        replayer.replay(records, sm, latestValues, this);
+        lastCheckpointEnd = lm.getEndLsn();
+    }
+
+    /**
+     * 读取日志最后一条 record，返回其中记录的最新 checkpoint 位置，没有可用的 checkpoint 时返回 -1
+     */
+    private long findCheckpoint(LsnLogManager lm) {
+        long truncation = lm.getTruncationLsn();
+        long end = lm.getEndLsn();
+        if (end == truncation) {
+            return -1;
+        }
+        int size = (int) Math.min(RECORD_SIZE, end - truncation);
+        ByteBuffer tail = ByteBuffer.wrap(lm.read(end - size, size));
+        int len = tail.get(size - 1) & 0xff;
+        long checkpoint = tail.getLong(size - len + 10);
+        return checkpoint >= truncation ? checkpoint : -1;
+    }
+
+    /**
+     * 从 reader 的当前位置读取一个完整的事务或 checkpoint，拼接到清空后的 pending 中
+     */
+    private void readGroup(LogReader reader, TxnBuffer pending) {
+        pending.reset();
+        while (true) {
+            int len = reader.get() & 0xff;
+            byte flag = reader.get();
+            reader.skip(16);
+            pending.append(reader, len - HEADER_SIZE - TRAILER_SIZE);
+            reader.skip(TRAILER_SIZE);
+            if ((flag & FLAG_COMMIT) != 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void scan(LogReader reader, RedoRecords records) {
+        TxnBuffer pending = new TxnBuffer();
+        long txID = 0;
+        long tag = -1;
+
+        while (reader.hasRemaining()) {
+            long index = reader.position();
+            int len = reader.get() & 0xff;
+            byte flag = reader.get();
+            long recordTxID = reader.getLong();
+            reader.skip(8);
+
+            if ((flag & FLAG_CHECKPOINT) != 0) {
+                reader.skip(len - HEADER_SIZE);
+                continue;
+            }
+            if ((flag & FLAG_FIRST) != 0) {
+                // 新事务开始，之前未提交的残缺事务直接丢弃
+                pending.reset();
+                txID = recordTxID;
+                tag = index;
+            } else if (tag < 0 || recordTxID != txID) {
+                tag = -1;
+            }
+
+            if (tag < 0) {
+                reader.skip(len - HEADER_SIZE);
+            } else {
+                pending.append(reader, len - HEADER_SIZE - TRAILER_SIZE);
+                reader.skip(TRAILER_SIZE);
+                if ((flag & FLAG_COMMIT) != 0) {
+                    ByteBuffer bbf = pending.view();
+                    while (bbf.hasRemaining()) {
+                        long key = bbf.getLong();
+                        byte[] value = new byte[bbf.getInt()];
+                        bbf.get(value);
+                        records.add(key, tag, value);
+                    }
+                    records.commit(tag, reader.position());
+                    pending.reset();
+                    tag = -1;
+                }
+            }
+        }
+    }
+}
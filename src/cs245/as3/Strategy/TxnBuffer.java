@@ -0,0 +1,47 @@
+package cs245.as3.Strategy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @Description:
+ * 恢复扫描时拼接一个事务的字节流，日志直接批量读入内部数组，数组按需扩容后复用，
+ * 每个事务不再分配 ByteArrayOutputStream、payload 数组和 toByteArray 的副本
+ */
+public class TxnBuffer {
+
+    private byte[] bytes = new byte[256];
+
+    private ByteBuffer view = ByteBuffer.wrap(bytes);
+
+    private int length;
+
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 从 reader 的当前位置读取 n 个字节追加到末尾
+     */
+    public void append(LogReader reader, int n) {
+        if (length + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + n));
+            view = ByteBuffer.wrap(bytes);
+        }
+        reader.get(bytes, length, n);
+        length += n;
+    }
+
+    /**
+     * @return 覆盖已拼接字节的视图，position 为 0；下一次 append 或 view 之后失效
+     */
+    public ByteBuffer view() {
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+}
@@ -0,0 +1,29 @@
+package cs245.as3;
+
+/**
+ * Thrown by commit() in optimistic mode when a key the transaction read has been committed by another
+ * transaction since the read. The transaction is aborted; the caller may retry it under a new txID.
+ */
+public class TransactionConflictException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final long txID;
+	private final long key;
+
+	public TransactionConflictException(long txID, long key) {
+		super("Transaction " + txID + " read key " + key + ", which has been committed by another transaction since.");
+		this.txID = txID;
+		this.key = key;
+	}
+
+	public long getTxID() {
+		return txID;
+	}
+
+	/**
+	 * @return the first key found to have changed
+	 */
+	public long getKey() {
+		return key;
+	}
+}
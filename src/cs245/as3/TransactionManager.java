@@ -1,13 +1,28 @@
 package cs245.as3;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import cs245.as3.Strategy.RedoReplayer;
 import cs245.as3.Strategy.Strategy;
 import cs245.as3.Strategy.StrategyModel1;
 import cs245.as3.Strategy.StrategyModel2;
+import cs245.as3.Strategy.StrategyModel4;
+import cs245.as3.Strategy.StrategyModel5;
 import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
+import cs245.as3.log.LsnLogAdapter;
 import cs245.as3.interfaces.StorageManager;
-import cs245.as3.interfaces.StorageManager.TaggedValue;
+import cs245.as3.store.ConcurrentValueTable;
+import cs245.as3.store.HeapValueTable;
+import cs245.as3.store.OffHeapValueTable;
+import cs245.as3.store.ValueTable;
+import cs245.as3.store.VersionedValueTable;
+import cs245.as3.util.LongHashMap;
+import cs245.as3.util.LongLongHashMap;
 
 /**
  * You will implement this class.
@@ -16,11 +31,90 @@ import cs245.as3.interfaces.StorageManager.TaggedValue;
  * Feel free to replace any of the data structures in your implementation, though the instructor solution includes
  * the same data structures (with additional fields) and uses the same strategy of buffering writes until commit.
  *
- * Your implementation need not be threadsafe, i.e. no methods of TransactionManager are ever called concurrently.
+ * By default the implementation is not threadsafe, i.e. no methods of TransactionManager may be called concurrently.
+ * With Options.concurrent set, start, read, write, commit, commitAsync and abort may be called from many threads at
+ * once, as long as each transaction is used by one thread at a time, and writePersisted may be called from storage
+ * threads. initAndRecover must still finish before any other method is called.
  *
  * You can assume that the constructor and initAndRecover() are both called before any of the other methods.
  */
 public class TransactionManager {
+	/**
+	 * Optional behaviour of the transaction manager. The defaults match the plain constructor.
+	 */
+	public static class Options {
+		/**
+		 * Keep committed values in direct ByteBuffer slabs instead of one heap object per key.
+		 */
+		public boolean offHeapValues = false;
+		/**
+		 * Size of each off-heap slab, see OffHeapValueTable.
+		 */
+		public int offHeapSlabSize = OffHeapValueTable.DEFAULT_SLAB_SIZE;
+		/**
+		 * Number of threads that replay redo records during recovery. Writes are partitioned by key,
+		 * so per-key order is kept; 1 replays on the calling thread. With more than one thread,
+		 * StorageManager.queueWrite is called concurrently from pool threads (for different keys),
+		 * so the storage manager must be thread-safe; the provided StorageManagerImpl is.
+		 */
+		public int recoveryThreads = 1;
+		/**
+		 * During recovery only replay the newest committed write of each key; superseded versions
+		 * are neither queued to storage nor put into the value table.
+		 */
+		public boolean recoverLatestVersionOnly = true;
+		/**
+		 * During recovery skip redo records whose key is already persisted with the same or a newer tag.
+		 */
+		public boolean skipPersistedRedo = true;
+		/**
+		 * When positive, write a fuzzy checkpoint of the keys that still await persistence once the
+		 * truncation point lags the log end by this many bytes, so that recovery only scans the log
+		 * after the latest checkpoint plus the transactions it lists. 0 disables checkpoints.
+		 * Checkpointed logs use a different record format, so whether this is positive must not change across a
+		 * restart until every logged write is persisted; initAndRecover throws IllegalStateException otherwise.
+		 */
+		public int checkpointInterval = 0;
+		/**
+		 * Expect a storage manager that may coalesce queued versions of a key and report only the newest one
+		 * as persisted. The queued tags of each key are then tracked, so that one callback releases every
+		 * version it covers. Works with non-coalescing storage managers too, at the cost of that bookkeeping.
+		 */
+		public boolean coalescedPersistence = false;
+		/**
+		 * Allow the transaction manager to be called from many threads at once, each transaction from one thread
+		 * at a time. Reads go lock-free to a concurrent committed-value index (offHeapValues is ignored),
+		 * writes and aborts only touch their own transaction, and commits are serialized while they append to
+		 * the log; queueing a commit's writes overlaps with the next commit's append, except under
+		 * optimisticConcurrency. writePersisted may be called from storage threads.
+		 */
+		public boolean concurrent = false;
+		/**
+		 * Largest log append that commitAsync packs the records of grouped transactions into. 128 is the
+		 * per-append limit of the provided log manager; a log without such a limit can take a whole group at once.
+		 */
+		public int groupCommitAppendSize = 128;
+		/**
+		 * Keep a version chain per key and let each transaction read the snapshot taken at start(): the
+		 * newest versions committed before it started, ignoring later commits. Versions no active snapshot
+		 * can see any more are garbage-collected. Off by default, where reads see the latest commit.
+		 */
+		public boolean snapshotReads = false;
+		/**
+		 * Record the version of every key a started transaction reads, and validate them when it commits: if any
+		 * of them has been committed by another transaction since, commit aborts the transaction and throws
+		 * TransactionConflictException. Writes are not checked, so conflict-free transactions pay only for the
+		 * read set.
+		 */
+		public boolean optimisticConcurrency = false;
+		/**
+		 * Let read() return the transaction's own uncommitted write to a key, looked up through the writeset's
+		 * key index. Other transactions' writes stay invisible until they commit. Off by default, where a
+		 * transaction reads the committed value even after writing the key.
+		 */
+		public boolean readYourOwnWrites = false;
+	}
+
 	public class WritesetEntry {
 		public long key;
 		public byte[] value;
@@ -29,25 +123,135 @@ public class TransactionManager {
 			this.value = value;
 		}
 	}
+
+	/**
+	 * A transaction's writes in first-write order. A repeated write to a key replaces the value in place
+	 * (last writer wins). Writesets and their entries are recycled through writesetPool, so a steady
+	 * stream of transactions does not allocate them again.
+	 */
+	private class Writeset {
+		private WritesetEntry[] entries = new WritesetEntry[8];
+		private int size;
+		// key -> index in entries
+		private final LongLongHashMap index = new LongLongHashMap(-1);
+
+		void put(long key, byte[] value) {
+			long i = index.get(key);
+			if (i >= 0) {
+				entries[(int) i].value = value;
+				return;
+			}
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size << 1);
+			}
+			WritesetEntry entry = entries[size];
+			if (entry == null) {
+				entries[size] = new WritesetEntry(key, value);
+			} else {
+				entry.key = key;
+				entry.value = value;
+			}
+			index.put(key, size++);
+		}
+
+		//The value written to key, or null if the transaction did not write it.
+		byte[] get(long key) {
+			long i = index.get(key);
+			return i >= 0 ? entries[(int) i].value : null;
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				entries[i].value = null;
+			}
+			size = 0;
+			index.clear();
+		}
+	}
 	/**
 	  * Holds the latest value for each key.
 	  */
-	private HashMap<Long, TaggedValue> latestValues;
+	private ValueTable latestValues;
 	/**
-	  * Hold on to writesets until commit.
+	  * Hold on to writesets until commit, keyed by txID.
 	  */
-	private HashMap<Long, ArrayList<WritesetEntry>> writesets;
+	private LongHashMap<Writeset> writesets;
+	/**
+	  * Used instead of writesets in concurrent mode.
+	  */
+	private ConcurrentHashMap<Long, Writeset> concurrentWritesets;
+	/**
+	  * Held while a commit validates and appends to the log, so that commits are logged in one order.
+	  */
+	private final Object commitLock = new Object();
+	/**
+	  * Held while a logged commit queues its writes and makes them visible. It is taken before commitLock is
+	  * released, so the storage manager and latestValues see commits in log order while the next commit is
+	  * already appending.
+	  */
+	private final ReentrantLock publishLock = new ReentrantLock();
+	/**
+	  * latestValues when snapshotReads is set, otherwise null.
+	  */
+	private VersionedValueTable versions;
+	/**
+	  * txID -> the snapshot it reads, when snapshotReads is set.
+	  */
+	private final ConcurrentHashMap<Long, Long> snapshots = new ConcurrentHashMap<>();
+	/**
+	  * txID -> key -> tag of the version read, when optimisticConcurrency is set. Created by start() and
+	  * removed by commit, commitAsync and abort.
+	  */
+	private final ConcurrentHashMap<Long, LongLongHashMap> readSets = new ConcurrentHashMap<>();
+	//Missing value of the read sets; NO_TAG is recorded for keys read before they had a value.
+	private static final long NOT_READ = Long.MIN_VALUE;
+	/**
+	  * Transactions waiting for commitAsync's leader; guarded by itself, as is commitLeader.
+	  */
+	private final ArrayDeque<PendingCommit> commitQueue = new ArrayDeque<>();
+
+	private boolean commitLeader;
+
+	private static class PendingCommit {
+		final long txID;
+		final Writeset writeset;
+		final LongLongHashMap reads;
+		final CompletableFuture<Void> done;
+		long tag;
+
+		PendingCommit(long txID, Writeset writeset, LongLongHashMap reads, CompletableFuture<Void> done) {
+			this.txID = txID;
+			this.writeset = writeset;
+			this.reads = reads;
+			this.done = done;
+		}
+	}
+
+	private final ArrayDeque<Writeset> writesetPool = new ArrayDeque<>();
 
-	private LogManager logManager;
+	private LsnLogManager logManager;
 
 	private StorageManager storageManager;
 
 	private Strategy strategy;
 
+	private RedoReplayer replayer;
+
+	private final Options options;
+
 	//private Map<Long,Integer> TXID_TO_TAG_MAP;
 
 	public TransactionManager() {
-		writesets = new HashMap<>();
+		this(new Options());
+	}
+
+	public TransactionManager(Options options) {
+		this.options = options;
+		if (options.concurrent) {
+			concurrentWritesets = new ConcurrentHashMap<>();
+		} else {
+			writesets = new LongHashMap<>();
+		}
 		//see initAndRecover
 		latestValues = null;
 	}
@@ -57,82 +261,374 @@ public class TransactionManager {
 	 * At this time you should detect whether the StorageManager is inconsistent and recover it.
 	 */
 	public void initAndRecover(StorageManager sm, LogManager lm) {
-		latestValues = sm.readStoredTable();
+		if (options.snapshotReads) {
+			versions = new VersionedValueTable();
+			latestValues = versions;
+		} else if (options.concurrent) {
+			latestValues = new ConcurrentValueTable();
+		} else {
+			latestValues = options.offHeapValues ? new OffHeapValueTable(options.offHeapSlabSize) : new HeapValueTable();
+		}
+		latestValues.load(sm.readStoredTable());
 		this.storageManager = sm;
-		this.logManager = lm;
-		this.strategy = new StrategyModel2(lm);
+		this.logManager = LsnLogAdapter.of(lm);
+		this.strategy = options.checkpointInterval > 0 ? new StrategyModel5(logManager, options.checkpointInterval) : new StrategyModel4(logManager);
+		replayer = new RedoReplayer(options.recoveryThreads);
+		replayer.setLatestVersionOnly(options.recoverLatestVersionOnly);
+		replayer.setSkipPersisted(options.skipPersistedRedo);
+		strategy.setReplayer(replayer);
+		strategy.setCoalescedPersistence(options.coalescedPersistence);
 		//this.TXID_TO_TAG_MAP =  new HashMap<>();
 
-		strategy.Recover(sm,lm,latestValues);
+		if (versions != null) {
+			//Everything recovered is committed before any snapshot taken from now on.
+			versions.publish(logManager.getEndLsn());
+		}
+		strategy.Recover(sm,logManager,latestValues);
+	}
+
+	/**
+	 * @return how many logged writes the last initAndRecover() skipped because storage already held them
+	 */
+	public int getSkippedRedoWrites() {
+		return replayer.getSkippedWrites();
 	}
 
 	/**
 	 * Indicates the start of a new transaction. We will guarantee that txID always increases (even across crashes)
+	 * With snapshotReads this opens the transaction's snapshot, and with optimisticConcurrency its read set.
 	 */
 	public void start(long txID) {
-		// TODO: Not implemented for non-durable transactions, you should implement this
-		//this.TXID_TO_TAG_MAP.put(txID,logManager.getLogEndOffset());
-
+		if (versions != null) {
+			snapshots.put(txID, versions.openSnapshot());
+		}
+		if (options.optimisticConcurrency) {
+			readSets.put(txID, new LongLongHashMap(NOT_READ));
+		}
 	}
 
 	/**
-	 * Returns the latest committed value for a key by any transaction.
+	 * Returns the latest committed value for a key by any transaction. With snapshotReads, a transaction that
+	 * was started instead sees the newest value committed before its start(). With readYourOwnWrites, the
+	 * transaction's own uncommitted write to the key takes precedence over both.
 	 */
 	public byte[] read(long txID, long key) {
-		TaggedValue taggedValue = latestValues.get(key);
-		return taggedValue == null ? null : taggedValue.value;
+		byte[] own = ownWrite(txID, key);
+		if (own != null) {
+			return own;
+		}
+		Long snapshot = versions != null ? snapshots.get(txID) : null;
+		recordRead(txID, key, snapshot);
+		return snapshot != null ? versions.getValue(key, snapshot) : latestValues.getValue(key);
+	}
+
+	/**
+	 * Same as read(txID, key), but copies the value into dst instead of returning an array.
+	 * @return the length of the value, or -1 if the key has no committed value
+	 */
+	public int read(long txID, long key, ByteBuffer dst) {
+		byte[] own = ownWrite(txID, key);
+		if (own != null) {
+			dst.put(own);
+			return own.length;
+		}
+		Long snapshot = versions != null ? snapshots.get(txID) : null;
+		recordRead(txID, key, snapshot);
+		return snapshot != null ? versions.read(key, snapshot, dst) : latestValues.read(key, dst);
 	}
 
 	/**
 	 * Indicates a write to the database. Note that such writes should not be visible to read()
 	 * calls until the transaction making the write commits. For simplicity, we will not make reads
-	 * to this same key from txID itself after we make a write to the key.
+	 * to this same key from txID itself after we make a write to the key, unless readYourOwnWrites is set.
 	 */
 	public void write(long txID, long key, byte[] value) {
-		ArrayList<WritesetEntry> writeset = writesets.get(txID);
+		if (options.concurrent) {
+			concurrentWritesets.computeIfAbsent(txID, id -> new Writeset()).put(key, value);
+			return;
+		}
+		Writeset writeset = writesets.get(txID);
 		if (writeset == null) {
-			writeset = new ArrayList<>();
+			writeset = writesetPool.isEmpty() ? new Writeset() : writesetPool.pop();
 			writesets.put(txID, writeset);
 		}
-		WritesetEntry entry = new WritesetEntry(key, value);
-
-		writeset.add(entry);
+		writeset.put(key, value);
 	}
 	/**
 	 * Commits a transaction, and makes its writes visible to subsequent read operations.\
 	 */
 	public void commit(long txID) {
-		ArrayList<WritesetEntry> writeset = writesets.get(txID);
-		if (writeset != null) {
-
-			long tag = logManager.getLogEndOffset();
+		closeSnapshot(txID);
+		LongLongHashMap reads = takeReadSet(txID);
+		Writeset writeset = takeWriteset(txID);
+		if (writeset == null) {
+			validateReadOnly(txID, reads);
+			return;
+		}
+		long tag;
+		synchronized(commitLock) {
+			TransactionConflictException conflict = validate(txID, reads, null);
+			if (conflict != null) {
+				release(writeset);
+				throw conflict;
+			}
+			tag = logManager.getEndLsn();
 
 			//两阶段提交 准备阶段
 			strategy.prepare(txID);
 
-			for(WritesetEntry x : writeset){
+			//先写入redo log  再写入数据
+			for(int i = 0; i < writeset.size; i++){
+				strategy.writeRedoLog(writeset.entries[i],txID);
+			}
 
-				//先写入redo log  再写入数据
-				strategy.writeRedoLog(x,txID);
+			// 两阶段提交 commit 阶段
+			strategy.commit(txID);
 
-				//  写入持久化
-				storageManager.queueWrite(x.key,tag, x.value);
+			// 日志写完后再登记，writePersisted 回调只会看到已提交事务的 tag
+			strategy.track(tag, writeset.size);
 
-				//  提交事务修改
-				latestValues.put(x.key, new TaggedValue(tag, x.value));
+			publishLock.lock();
+			if (options.optimisticConcurrency) {
+				publish(tag, writeset);
 			}
+		}
+		if (!options.optimisticConcurrency) {
+			publish(tag, writeset);
+		}
+		release(writeset);
+	}
 
-			// 两阶段提交 commit 阶段
-			strategy.commit(txID);
+	/**
+	 * Commits a transaction as part of a group. The calling thread either becomes the leader, which logs the
+	 * pending commits of many transactions with combined appends, or leaves its commit to the current leader.
+	 * A leader only commits the group holding its own transaction; commits queued meanwhile are led from the
+	 * common ForkJoinPool, so the caller is not held up by later groups.
+	 * The future completes once the transaction's records are in the log and its writes are visible to read().
+	 * Commits become visible in the order they were submitted.
+	 */
+	public CompletableFuture<Void> commitAsync(long txID) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		closeSnapshot(txID);
+		LongLongHashMap reads = takeReadSet(txID);
+		Writeset writeset = takeWriteset(txID);
+		if (writeset == null) {
+			try {
+				validateReadOnly(txID, reads);
+				done.complete(null);
+			} catch (TransactionConflictException e) {
+				done.completeExceptionally(e);
+			}
+			return done;
+		}
+		synchronized(commitQueue) {
+			commitQueue.add(new PendingCommit(txID, writeset, reads, done));
+			if (commitLeader) {
+				return done;
+			}
+			commitLeader = true;
+		}
+		leadGroupCommit();
+		return done;
+	}
+
+	//Commits everything queued as one group. If more commits were queued meanwhile, leadership passes to a
+	//continuation without being released, so groups stay in submission order and the caller can return.
+	private void leadGroupCommit() {
+		ArrayList<PendingCommit> group;
+		synchronized(commitQueue) {
+			group = new ArrayList<>(commitQueue);
+			commitQueue.clear();
+		}
+		try {
+			commitGroup(group);
+			for (PendingCommit commit : group) {
+				release(commit.writeset);
+				commit.done.complete(null);
+			}
+		} catch (RuntimeException | Error e) {
+			for (PendingCommit commit : group) {
+				commit.done.completeExceptionally(e);
+			}
+		}
+		synchronized(commitQueue) {
+			if (commitQueue.isEmpty()) {
+				commitLeader = false;
+				return;
+			}
+		}
+		CompletableFuture.runAsync(this::leadGroupCommit);
+	}
+
+	private void commitGroup(ArrayList<PendingCommit> group) {
+		synchronized(commitLock) {
+			//Validate in submission order; a transaction also conflicts with the writes of earlier group members.
+			LongLongHashMap groupWrites = options.optimisticConcurrency ? new LongLongHashMap(NOT_READ) : null;
+			for (Iterator<PendingCommit> it = group.iterator(); it.hasNext(); ) {
+				PendingCommit commit = it.next();
+				TransactionConflictException conflict = validate(commit.txID, commit.reads, groupWrites);
+				if (conflict != null) {
+					release(commit.writeset);
+					commit.done.completeExceptionally(conflict);
+					it.remove();
+				} else if (groupWrites != null) {
+					for (int i = 0; i < commit.writeset.size; i++) {
+						groupWrites.put(commit.writeset.entries[i].key, 0);
+					}
+				}
+			}
+			if (group.isEmpty()) {
+				return;
+			}
+			strategy.beginGroup();
+			for (PendingCommit commit : group) {
+				commit.tag = strategy.nextLsn();
+				strategy.prepare(commit.txID);
+				for(int i = 0; i < commit.writeset.size; i++){
+					strategy.writeRedoLog(commit.writeset.entries[i], commit.txID);
+				}
+				strategy.commit(commit.txID);
+			}
+			strategy.endGroup(options.groupCommitAppendSize);
+
+			// 整组的日志写完后先全部登记，再交给 StorageManager，截断位置不会越过尚未登记的事务
+			for (PendingCommit commit : group) {
+				strategy.track(commit.tag, commit.writeset.size);
+			}
+
+			publishLock.lock();
+			if (options.optimisticConcurrency) {
+				publish(group);
+			}
+		}
+		if (!options.optimisticConcurrency) {
+			publish(group);
+		}
+	}
 
-			writesets.remove(txID);
+	//Queues the writes of logged commits with publishLock held, and releases it. Validation compares read sets
+	//against latestValues, so in optimistic mode this runs before commitLock is released.
+	private void publish(long tag, Writeset writeset) {
+		try {
+			queueWrites(tag, writeset);
+		} finally {
+			publishLock.unlock();
+		}
+	}
+
+	private void publish(ArrayList<PendingCommit> group) {
+		try {
+			for (PendingCommit commit : group) {
+				queueWrites(commit.tag, commit.writeset);
+			}
+		} finally {
+			publishLock.unlock();
+		}
+	}
+
+	//Hands a logged transaction's writes to the storage manager and makes them visible.
+	private void queueWrites(long tag, Writeset writeset) {
+		for(int i = 0; i < writeset.size; i++){
+			WritesetEntry x = writeset.entries[i];
+			if (options.coalescedPersistence) {
+				strategy.queued(x.key, tag);
+			}
+			//  写入持久化
+			storageManager.queueWrite(x.key,tag, x.value);
+
+			//  提交事务修改
+			latestValues.put(x.key, tag, x.value);
+		}
+		if (versions != null) {
+			//All of the transaction's writes become visible to new snapshots at once.
+			versions.publish(tag + 1);
+		}
+	}
+
+	private byte[] ownWrite(long txID, long key) {
+		if (!options.readYourOwnWrites) {
+			return null;
+		}
+		Writeset writeset = options.concurrent ? concurrentWritesets.get(txID) : writesets.get(txID);
+		return writeset != null ? writeset.get(key) : null;
+	}
+
+	private void recordRead(long txID, long key, Long snapshot) {
+		if (!options.optimisticConcurrency) {
+			return;
+		}
+		//Only started transactions have a read set: a read under any other txID is not validated and leaves nothing behind.
+		LongLongHashMap reads = readSets.get(txID);
+		if (reads != null && !reads.containsKey(key)) {
+			//Taken before the value is read: a concurrent commit in between then fails validation instead of passing it.
+			reads.put(key, snapshot != null ? versions.getTag(key, snapshot) : latestValues.getTag(key));
+		}
+	}
+
+	private LongLongHashMap takeReadSet(long txID) {
+		return options.optimisticConcurrency ? readSets.remove(txID) : null;
+	}
+
+	//Returns the conflict if a key in reads has been committed since it was read, or is written by an earlier
+	//member of the same group (groupWrites). Called with commitLock held.
+	private TransactionConflictException validate(long txID, LongLongHashMap reads, LongLongHashMap groupWrites) {
+		if (reads == null) {
+			return null;
+		}
+		long[] changed = new long[1];
+		boolean[] found = new boolean[1];
+		reads.forEach((key, tag) -> {
+			if (!found[0] && (latestValues.getTag(key) != tag || groupWrites != null && groupWrites.containsKey(key))) {
+				found[0] = true;
+				changed[0] = key;
+			}
+		});
+		return found[0] ? new TransactionConflictException(txID, changed[0]) : null;
+	}
+
+	private void validateReadOnly(long txID, LongLongHashMap reads) {
+		if (reads == null) {
+			return;
+		}
+		TransactionConflictException conflict;
+		synchronized(commitLock) {
+			conflict = validate(txID, reads, null);
+		}
+		if (conflict != null) {
+			throw conflict;
+		}
+	}
+
+	private void closeSnapshot(long txID) {
+		if (versions != null) {
+			Long snapshot = snapshots.remove(txID);
+			if (snapshot != null) {
+				versions.closeSnapshot(snapshot);
+			}
 		}
 	}
 	/**
 	 * Aborts a transaction.
 	 */
 	public void abort(long txID) {
-		writesets.remove(txID);
+		closeSnapshot(txID);
+		takeReadSet(txID);
+		Writeset writeset = takeWriteset(txID);
+		if (writeset != null) {
+			release(writeset);
+		}
+	}
+
+	private Writeset takeWriteset(long txID) {
+		return options.concurrent ? concurrentWritesets.remove(txID) : writesets.remove(txID);
+	}
+
+	//Writesets are only recycled when a single thread uses the transaction manager.
+	private void release(Writeset writeset) {
+		if (!options.concurrent) {
+			writeset.clear();
+			writesetPool.push(writeset);
+		}
 	}
 
 	/**
@@ -140,6 +636,14 @@ public class TransactionManager {
 	 * These calls are in order of writes to a key and will occur once for every such queued write, unless a crash occurs.
 	 */
 	public void writePersisted(long key, long persisted_tag, byte[] persisted_value) {
-		strategy.updateOffsets(persisted_tag);
+		strategy.updateOffsets(key, persisted_tag);
+	}
+
+	/**
+	 * Batched form of writePersisted: keys[i] was persisted with tags[i], for i < count.
+	 * The log truncation point is moved at most once per batch.
+	 */
+	public void writePersisted(long[] keys, long[] persisted_tags, int count) {
+		strategy.updateOffsets(keys, persisted_tags, count);
 	}
 }
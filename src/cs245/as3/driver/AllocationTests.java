@@ -0,0 +1,111 @@
+package cs245.as3.driver;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.StorageManager;
+
+/**
+ * Measures the bytes allocated per steady-state commit by the transaction manager and its strategy.
+ * The log and storage stubs below allocate nothing themselves, so the number only covers our code.
+ */
+public class AllocationTests {
+
+    private static final int N_KEYS = 1000;
+
+    private static final int WRITES_PER_TXN = 5;
+
+    //Accepts appends without keeping them.
+    private static class DiscardingLogManager implements LogManager {
+        private int end;
+        private int truncation;
+
+        public int getLogEndOffset() {
+            return end;
+        }
+
+        public byte[] readLogRecord(int offset, int size) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int appendLogRecord(byte[] record) {
+            int prior = end;
+            end += record.length;
+            return prior;
+        }
+
+        public int appendLogRecord(ByteBuffer... srcs) {
+            int prior = end;
+            for (ByteBuffer src : srcs) {
+                end += src.remaining();
+                src.position(src.limit());
+            }
+            return prior;
+        }
+
+        public int getLogTruncationOffset() {
+            return truncation;
+        }
+
+        public void setLogTruncationOffset(int offset) {
+            truncation = offset;
+        }
+    }
+
+    //Persists every write as soon as it is queued.
+    private static class ImmediateStorageManager implements StorageManager {
+        private TransactionManager tm;
+
+        public HashMap<Long, TaggedValue> readStoredTable() {
+            return new HashMap<>();
+        }
+
+        public void queueWrite(long key, long tag, byte[] value) {
+            tm.writePersisted(key, tag, value);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long runCommits(TransactionManager tm, byte[][] values, long firstTxID, int count) {
+        for (long txID = firstTxID; txID < firstTxID + count; txID++) {
+            tm.start(txID);
+            for (int i = 0; i < WRITES_PER_TXN; i++) {
+                long key = (txID * 7 + i * 131) % N_KEYS;
+                tm.write(txID, key, values[(int) key]);
+            }
+            tm.commit(txID);
+        }
+        return firstTxID + count;
+    }
+
+    @Test
+    public void TestSteadyStateCommitAllocation() {
+        ImmediateStorageManager sm = new ImmediateStorageManager();
+        TransactionManager tm = new TransactionManager();
+        sm.tm = tm;
+        tm.initAndRecover(sm, new DiscardingLogManager());
+
+        //Values are created up front: committing a value must not copy it.
+        byte[][] values = new byte[N_KEYS][];
+        for (int key = 0; key < N_KEYS; key++) {
+            values[key] = new byte[50 + key % 100];
+        }
+
+        //Warm up so that tables reach their steady-state capacity and the JIT has compiled the path.
+        long txID = runCommits(tm, values, 0, 200000);
+
+        int commits = 200000;
+        long before = allocatedBytes();
+        runCommits(tm, values, txID, commits);
+        long perCommit = (allocatedBytes() - before) / commits;
+        assert(perCommit < 8);
+    }
+}
@@ -0,0 +1,151 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.driver.LogManagerImpl.CrashException;
+
+/**
+ * A key that never persists pins the truncation point; checkpoints have to keep recovery short anyway.
+ */
+public class CheckpointTests {
+
+    private static final int N_KEYS = 100;
+
+    /**
+     * @return log iops used by the final recovery
+     */
+    private int TestStalledTruncationTemplate(TransactionManager.Options options) {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        sm.blockPersistenceForKeys(new long[]{0});
+        TransactionManager tm = Recovery.recover(sm, lm, options);
+
+        Random r = new Random(245);
+        HashMap<Long, byte[]> committed = new HashMap<>();
+        for (int txID = 0; txID < 5000; txID++) {
+            tm.start(txID);
+            HashMap<Long, byte[]> writes = new HashMap<>();
+            //Key 0 is only written at the very beginning, so its record stays at the head of the log:
+            for (int i = 0; i < 3; i++) {
+                long key = txID == 0 ? 0 : r.nextInt(N_KEYS - 1) + 1;
+                byte[] value = new byte[r.nextInt(40) + 1];
+                r.nextBytes(value);
+                tm.write(txID, key, value);
+                writes.put(key, value);
+            }
+            tm.commit(txID);
+            committed.putAll(writes);
+            if (txID % 50 == 0) {
+                sm.do_persistence_work();
+            }
+            if (txID == 2500) {
+                //Recover once in the middle so the second half runs on a recovered checkpoint state:
+                sm.crash();
+                tm = Recovery.recover(sm, lm, options);
+            }
+        }
+        assert(lm.getLogTruncationOffset() == 0);
+        sm.crash();
+
+        int before = lm.getIOPCount();
+        tm = Recovery.recover(sm, lm, options);
+        int iops = lm.getIOPCount() - before;
+        for (long key = 0; key < N_KEYS; key++) {
+            assert(Arrays.equals(tm.read(10000, key), committed.get(key)));
+            assert(Arrays.equals(sm.readLatestValue(key), committed.get(key)));
+        }
+        return iops;
+    }
+
+    @Test
+    public void TestCheckpointBoundsRecovery() {
+        int full = TestStalledTruncationTemplate(new TransactionManager.Options());
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.checkpointInterval = 4096;
+        int checkpointed = TestStalledTruncationTemplate(options);
+        assert(checkpointed * 10 < full);
+    }
+
+    @Test
+    public void TestCrashDuringCheckpoint() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.checkpointInterval = 1024;
+        for (int crashAfter = 1; crashAfter < 120; crashAfter += 7) {
+            LogManagerImpl lm = new LogManagerImpl();
+            StorageManagerImpl sm = new StorageManagerImpl();
+            sm.blockPersistenceForKeys(new long[]{0});
+            TransactionManager tm = Recovery.recover(sm, lm, options);
+            HashMap<Long, byte[]> committed = new HashMap<>();
+            int txID = 0;
+            lm.stopServingRequestsAfterIOs(crashAfter + 200);
+            try {
+                for (; ; txID++) {
+                    tm.start(txID);
+                    byte[] value = String.format("value %d", txID).getBytes();
+                    tm.write(txID, txID % N_KEYS, value);
+                    tm.commit(txID);
+                    committed.put((long) (txID % N_KEYS), value);
+                    sm.do_persistence_work();
+                }
+            } catch (CrashException e) {
+                //The transaction that was committing may or may not have made it:
+            }
+            lm.resumeServingRequests();
+            sm.crash();
+            tm = Recovery.recover(sm, lm, options);
+            byte[] last = String.format("value %d", txID).getBytes();
+            for (long key = 0; key < N_KEYS; key++) {
+                byte[] value = tm.read(txID + 1, key);
+                assert(Arrays.equals(value, committed.get(key)) || (key == txID % N_KEYS && Arrays.equals(value, last)));
+            }
+        }
+    }
+
+    private void TestFormatChangeTemplate(int writtenInterval, int recoveredInterval) {
+        TransactionManager.Options written = new TransactionManager.Options();
+        written.checkpointInterval = writtenInterval;
+        TransactionManager.Options recovered = new TransactionManager.Options();
+        recovered.checkpointInterval = recoveredInterval;
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        sm.blockPersistenceForKeys(new long[]{0});
+        TransactionManager tm = Recovery.recover(sm, lm, written);
+        for (int txID = 0; txID < 500; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % N_KEYS, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        sm.do_persistence_work();
+        sm.crash();
+
+        //Key 0 keeps the log from being truncated, so the other format would misread it:
+        try {
+            Recovery.recover(sm, lm, recovered);
+            assert(false);
+        } catch (IllegalStateException e) {
+            //Expected.
+        }
+
+        //Once everything is persisted the log is empty and the format may change:
+        sm.blockPersistenceForKeys(null);
+        Recovery.recover(sm, lm, written);
+        sm.do_persistence_work();
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+        sm.crash();
+        tm = Recovery.recover(sm, lm, recovered);
+        for (long key = 0; key < N_KEYS; key++) {
+            assert(Arrays.equals(tm.read(500, key), String.format("value %d", 400 + key).getBytes()));
+        }
+    }
+
+    @Test
+    public void TestFormatChangeDetected() {
+        TestFormatChangeTemplate(1024, 0);
+        TestFormatChangeTemplate(0, 1024);
+    }
+}
@@ -0,0 +1,181 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+
+public class ConcurrentTransactionManagerTests {
+
+    private static final int WRITERS = 4;
+
+    private static final int READERS = 4;
+
+    private static final int KEYS_PER_WRITER = 16;
+
+    private static final int TXNS_PER_WRITER = 5000;
+
+    private static TransactionManager.Options concurrentOptions() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.concurrent = true;
+        return options;
+    }
+
+    private static long parse(byte[] value) {
+        return Long.parseLong(new String(value));
+    }
+
+    @Test
+    public void TestConcurrentCommitsAndReads() throws InterruptedException {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, concurrentOptions());
+        sm.startBackgroundPersistence(2, 1, 1000);
+
+        //Writer w owns keys [w * KEYS_PER_WRITER, (w + 1) * KEYS_PER_WRITER) and writes an increasing counter to them.
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                for (long i = 0; i < TXNS_PER_WRITER; i++) {
+                    long txID = i * WRITERS + writer;
+                    tm.start(txID);
+                    for (int k = 0; k < 3; k++) {
+                        long key = writer * KEYS_PER_WRITER + (i + k) % KEYS_PER_WRITER;
+                        tm.write(txID, key, Long.toString(i).getBytes());
+                    }
+                    if (i % 10 == 9) {
+                        tm.abort(txID);
+                    } else {
+                        tm.commit(txID);
+                    }
+                }
+            }));
+        }
+        //A reader never sees a key go back to an older value.
+        for (int r = 0; r < READERS; r++) {
+            final Random random = new Random(r);
+            threads.add(new Thread(() -> {
+                long[] seen = new long[WRITERS * KEYS_PER_WRITER];
+                while (writing.get()) {
+                    int key = random.nextInt(seen.length);
+                    byte[] value = tm.read(Long.MAX_VALUE, key);
+                    if (value != null) {
+                        long counter = parse(value);
+                        if (counter < seen[key] || counter % 10 == 9) {
+                            failed.set(true);
+                        }
+                        seen[key] = counter;
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int w = 0; w < WRITERS; w++) {
+            threads.get(w).join();
+        }
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert(!failed.get());
+
+        sm.stopBackgroundPersistence(true);
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+
+        //Commits that are not persisted yet come back from the log after a crash.
+        sm.startBackgroundPersistence(2, 1, 1);
+        for (long i = TXNS_PER_WRITER; i < TXNS_PER_WRITER + 100; i++) {
+            tm.start(i * WRITERS);
+            tm.write(i * WRITERS, 0, Long.toString(i).getBytes());
+            tm.commit(i * WRITERS);
+        }
+        sm.crash();
+        TransactionManager recovered = Recovery.recover(sm, lm, concurrentOptions());
+        assert(parse(recovered.read(Long.MAX_VALUE, 0)) == TXNS_PER_WRITER + 99);
+        for (int key = 1; key < WRITERS * KEYS_PER_WRITER; key++) {
+            assert(recovered.read(Long.MAX_VALUE, key) != null);
+        }
+    }
+
+    //Counts appends, and holds the first one until released so that commits pile up behind the leader.
+    //Later appends are held until releasedRest.
+    private static class GatedLogManager extends LogManagerImpl {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch releasedRest = new CountDownLatch(1);
+        int appends;
+
+        @Override
+        public int appendLogRecord(ByteBuffer... srcs) {
+            entered.countDown();
+            try {
+                (appends == 0 ? released : releasedRest).await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            appends++;
+            return super.appendLogRecord(srcs);
+        }
+    }
+
+    @Test
+    public void TestGroupCommit() throws Exception {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        GatedLogManager lm = new GatedLogManager();
+        TransactionManager tm = Recovery.recover(sm, lm, concurrentOptions());
+
+        tm.start(0);
+        tm.write(0, 0, "value 0".getBytes());
+        Thread leader = new Thread(() -> tm.commitAsync(0).join());
+        leader.start();
+        lm.entered.await();
+
+        //The leader is busy appending: these commits wait for the next group and are packed together.
+        int n = 30;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (long txID = 1; txID <= n; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID, String.format("value %d", txID).getBytes());
+            futures.add(tm.commitAsync(txID));
+        }
+        assert(tm.read(n + 1, n) == null);
+        lm.released.countDown();
+        //The leader returns after its own group; the queued commits are led elsewhere.
+        leader.join(10000);
+        boolean leaderReturned = !leader.isAlive();
+        boolean queuedPending = !futures.get(0).isDone();
+        lm.releasedRest.countDown();
+        leader.join();
+        assert(leaderReturned);
+        assert(queuedPending);
+        for (CompletableFuture<Void> future : futures) {
+            future.join();
+        }
+        //Each record is 10 + 12 + 8 bytes, so four of them share an append.
+        assert(lm.appends == 1 + (n + 3) / 4);
+        for (long key = 0; key <= n; key++) {
+            assert(new String(tm.read(n + 1, key)).equals(String.format("value %d", key)));
+        }
+
+        sm.do_persistence_work();
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+        tm.start(n + 1);
+        tm.write(n + 1, 0, "value 31".getBytes());
+        tm.commitAsync(n + 1).join();
+        sm.crash();
+        TransactionManager recovered = Recovery.recover(sm, lm, concurrentOptions());
+        assert(new String(recovered.read(n + 2, 0)).equals("value 31"));
+    }
+}
@@ -1,6 +1,8 @@
 package cs245.as3.driver;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 
 import cs245.as3.interfaces.LogManager;
 
@@ -9,7 +11,10 @@ import cs245.as3.interfaces.LogManager;
  * Make this an interface
  */
 public class LogManagerImpl implements LogManager {
-	private ByteBuffer log;  // 模拟 日志持久化
+	// 模拟 日志持久化，日志由固定大小的段组成，segments.get(i) 保存逻辑偏移 [(firstSegment + i) * SEGMENT_SIZE, (firstSegment + i + 1) * SEGMENT_SIZE)
+	private final ArrayList<byte[]> segments;
+	private int firstSegment;   // segments 中第一个段的编号，之前的段已被截断
+	private final ArrayDeque<byte[]> pool;  // 整段被截断后回收的段，追加时优先复用
 	private int logSize;     // 日志的长度
 	private int logTruncationOffset;  // 日志的截断位置，前面的相当于清楚了，用于redo log 的 数据持久化
 	private int Riop_counter;   // 读取的次数
@@ -17,14 +22,18 @@ public class LogManagerImpl implements LogManager {
 	private int nIOSBeforeCrash;    // 设置几次IO之后，log 崩溃   调用 crash 清除数据
 	private boolean serveRequests;  // 模拟不可用状态
 
-	// 1 GB
-	private static final int BUFSIZE_START = 1000000000;
+	// 1 MB per segment, allocated on demand
+	private static final int SEGMENT_SIZE = 1 << 20;
+
+	// At most this many truncated segments are kept for reuse
+	private static final int MAX_POOLED_SEGMENTS = 4;
 
 	// 128 byte max record size
 	private static final int RECORD_SIZE = 128;
 
 	public LogManagerImpl() {
-		log = ByteBuffer.allocate(BUFSIZE_START);
+		segments = new ArrayList<>();
+		pool = new ArrayDeque<>();
 		logSize = 0;
 		serveRequests = true;
 	}
@@ -36,7 +45,15 @@ public class LogManagerImpl implements LogManager {
 	}
 
 	public byte[] readLogRecord(int position, int size) throws ArrayIndexOutOfBoundsException {
+		byte[] ret = new byte[size];
+		readLogRecord(position, ByteBuffer.wrap(ret));
+		return ret;
+	}
+
+	//Reads dst.remaining() bytes into dst
+	public void readLogRecord(int position, ByteBuffer dst) throws ArrayIndexOutOfBoundsException {
 		checkServeRequest();
+		int size = dst.remaining();
 		if ( position < logTruncationOffset || position+size > getLogEndOffset() ) {
 			throw new ArrayIndexOutOfBoundsException("Offset " + (position+size) + "invalid: log start offset is " + logTruncationOffset +
 					", log end offset is " + getLogEndOffset());
@@ -47,32 +64,39 @@ public class LogManagerImpl implements LogManager {
 					" greater than maximum allowed length " + RECORD_SIZE);
 		}
 
-		byte[] ret = new byte[size];
-		log.position(position);
-		log.get(ret);
-		Riop_counter++;
-		return ret;
+		synchronized(this) {
+			copy(position, dst, false);
+			Riop_counter++;
+		}
 	}
 
 	//Returns the length of the log before the append occurs, atomically
 	public int appendLogRecord(byte[] record) {
+		return appendLogRecord(ByteBuffer.wrap(record));
+	}
+
+	//Appends the remaining bytes of all buffers as one record, atomically
+	public int appendLogRecord(ByteBuffer... srcs) {
 		checkServeRequest();
-		if ( record.length > RECORD_SIZE ) {
-			throw new IllegalArgumentException("Record length " + record.length +
+		int length = 0;
+		for (ByteBuffer src : srcs) {
+			length += src.remaining();
+		}
+		if ( length > RECORD_SIZE ) {
+			throw new IllegalArgumentException("Record length " + length +
 					" greater than maximum allowed length " + RECORD_SIZE);
 		}
 		synchronized(this) {
 			Wiop_counter++;
 
-			log.position(logSize);
+			int priorLogSize = logSize;
 
-			for ( int i = 0; i < record.length; i++ ) {
-				log.put(record[i]);
+			for (ByteBuffer src : srcs) {
+				int n = src.remaining();
+				copy(logSize, src, true);
+				logSize += n;
 			}
 
-			int priorLogSize = logSize;
-
-			logSize += record.length;
 			return priorLogSize;
 		}
 	}
@@ -81,12 +105,40 @@ public class LogManagerImpl implements LogManager {
 		return logTruncationOffset;
 	}
 
-	public void setLogTruncationOffset(int logTruncationOffset) {
+	public synchronized void setLogTruncationOffset(int logTruncationOffset) {
 		if (logTruncationOffset > logSize || logTruncationOffset < this.logTruncationOffset) {
 			throw new IllegalArgumentException();
 		}
 
 		this.logTruncationOffset = logTruncationOffset;
+
+		//整段都在截断位置之前的段不会再被读取，放回段池
+		while (firstSegment < logTruncationOffset / SEGMENT_SIZE && !segments.isEmpty()) {
+			byte[] segment = segments.remove(0);
+			firstSegment++;
+			if (pool.size() < MAX_POOLED_SEGMENTS) {
+				pool.push(segment);
+			}
+		}
+	}
+
+	//Copies the remaining bytes of buffer to or from the log at a logical offset, allocating segments as the log grows.
+	//Caller holds the lock.
+	private void copy(int position, ByteBuffer buffer, boolean write) {
+		while (buffer.hasRemaining()) {
+			int index = position / SEGMENT_SIZE - firstSegment;
+			while (index >= segments.size()) {
+				segments.add(pool.isEmpty() ? new byte[SEGMENT_SIZE] : pool.pop());
+			}
+			int offset = position % SEGMENT_SIZE;
+			int n = Math.min(SEGMENT_SIZE - offset, buffer.remaining());
+			if (write) {
+				buffer.get(segments.get(index), offset, n);
+			} else {
+				buffer.put(segments.get(index), offset, n);
+			}
+			position += n;
+		}
 	}
 
 
@@ -118,7 +170,7 @@ public class LogManagerImpl implements LogManager {
 	}
 
 	protected void crash() {
-		log.clear();
+		//The log itself is durable: nothing is lost on crash.
 	}
 
 	protected void stopServingRequestsAfterIOs(int nIOsToServe) {
@@ -65,4 +65,66 @@ public class LogManagerTests {
         assert(rec_r2.key == r2.key);
         assert(Arrays.equals(rec_r2.value, r2.value));
     }
+
+    @Test
+    public void TestGrowAndTruncate() {
+        LogManagerImpl lm = new LogManagerImpl();
+
+        //Write several segments worth of records; 100-byte records regularly straddle a segment boundary.
+        int nRecords = 50000;
+        for (int i = 0; i < nRecords; i++) {
+            byte[] value = new byte[100 - Long.BYTES];
+            Arrays.fill(value, (byte) i);
+            int offset = lm.appendLogRecord(new Record(i, value).serialize());
+            assert(offset == i * 100);
+        }
+        for (int i = 0; i < nRecords; i += 997) {
+            Record rec = Record.deserialize(lm.readLogRecord(i * 100, 100));
+            assert(rec.key == i);
+            assert(rec.value[0] == (byte) i);
+        }
+
+        //Offsets stay logical after the head of the log is released:
+        lm.setLogTruncationOffset(40000 * 100);
+        for (int i = 40000; i < nRecords + 20000; i++) {
+            if (i >= nRecords) {
+                byte[] value = new byte[100 - Long.BYTES];
+                Arrays.fill(value, (byte) i);
+                int offset = lm.appendLogRecord(new Record(i, value).serialize());
+                assert(offset == i * 100);
+            }
+            Record rec = Record.deserialize(lm.readLogRecord(i * 100, 100));
+            assert(rec.key == i);
+            assert(rec.value[0] == (byte) i);
+        }
+    }
+
+    @Test
+    public void TestByteBufferAppendAndRead() {
+        LogManagerImpl lm = new LogManagerImpl();
+        lm.appendLogRecord("padding".getBytes());
+
+        //A gathering append is one record and one IO, whatever kind of buffers it is given:
+        ByteBuffer header = ByteBuffer.allocateDirect(Long.BYTES).putLong(7);
+        header.flip();
+        ByteBuffer body = ByteBuffer.wrap("xxbarbazxx".getBytes(), 2, 6);
+        int iops = lm.getIOPCount();
+        int offset = lm.appendLogRecord(header, body);
+        assert(lm.getIOPCount() - iops == 1);
+        assert(offset == 7);
+        assert(!header.hasRemaining() && !body.hasRemaining());
+        assert(lm.getLogEndOffset() == offset + Long.BYTES + 6);
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(64);
+        dst.position(3);
+        dst.limit(3 + Long.BYTES + 6);
+        lm.readLogRecord(offset, dst);
+        assert(!dst.hasRemaining());
+        dst.position(3);
+        byte[] record = new byte[Long.BYTES + 6];
+        dst.get(record);
+        Record rec = Record.deserialize(record);
+        assert(rec.key == 7);
+        assert(Arrays.equals(rec.value, "barbaz".getBytes()));
+    }
 }
@@ -0,0 +1,61 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.Strategy.LogReader;
+
+public class LogReaderTests {
+
+    @Test
+    public void TestRecordsSpanningChunks() {
+        LogManagerImpl lm = new LogManagerImpl();
+        Random r = new Random(245);
+
+        int nRecords = 200;
+        byte[][] values = new byte[nRecords][];
+        for (int i = 0; i < nRecords; i++) {
+            values[i] = new byte[r.nextInt(100) + 1];
+            r.nextBytes(values[i]);
+            ByteBuffer record = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + values[i].length);
+            record.putLong(i);
+            record.putInt(values[i].length);
+            record.put(values[i]);
+            lm.appendLogRecord(record.array());
+        }
+
+        int iops = lm.getIOPCount();
+        LogReader reader = new LogReader(lm, 0);
+        for (int i = 0; i < nRecords; i++) {
+            long key = reader.getLong();
+            assert(key == i);
+            byte[] value = reader.read(reader.getInt());
+            assert(Arrays.equals(value, values[i]));
+        }
+        assert(!reader.hasRemaining());
+
+        //Every read should be a full chunk except the last one:
+        int chunks = (lm.getLogEndOffset() + LogReader.CHUNK_SIZE - 1) / LogReader.CHUNK_SIZE;
+        assert(lm.getIOPCount() - iops == chunks);
+    }
+
+    @Test
+    public void TestStartAfterTruncation() {
+        LogManagerImpl lm = new LogManagerImpl();
+        for (int i = 0; i < 10; i++) {
+            lm.appendLogRecord(ByteBuffer.allocate(Long.BYTES).putLong(i).array());
+        }
+        lm.setLogTruncationOffset(5 * Long.BYTES);
+
+        LogReader reader = new LogReader(lm, lm.getLogTruncationOffset());
+        for (long i = 5; i < 10; i++) {
+            assert(reader.position() == i * Long.BYTES);
+            long value = reader.getLong();
+            assert(value == i);
+        }
+        assert(!reader.hasRemaining());
+    }
+}
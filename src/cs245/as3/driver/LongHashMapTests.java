@@ -0,0 +1,59 @@
+package cs245.as3.driver;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.util.LongHashMap;
+
+public class LongHashMapTests {
+
+    @Test
+    public void TestMatchesHashMap() {
+        Random r = new Random(245);
+        HashMap<Long, Long> expected = new HashMap<>();
+        LongHashMap<Long> map = new LongHashMap<>();
+
+        for (int i = 0; i < 200000; i++) {
+            //Small key range so that puts overwrite and removes hit:
+            long key = r.nextInt(5000) - 2500;
+            Long expectedPrior, prior;
+            if (r.nextInt(4) == 0) {
+                expectedPrior = expected.remove(key);
+                prior = map.remove(key);
+            } else {
+                long value = r.nextLong();
+                expectedPrior = expected.put(key, value);
+                prior = map.put(key, value);
+            }
+            assert(equal(expectedPrior, prior));
+            assert(expected.size() == map.size());
+        }
+        for (long key = -2500; key < 2500; key++) {
+            assert(equal(expected.get(key), map.get(key)));
+        }
+
+        HashMap<Long, Long> visited = new HashMap<>();
+        map.forEach((key, value) -> visited.put(key, value));
+        assert(visited.equals(expected));
+    }
+
+    @Test
+    public void TestImport() {
+        HashMap<Long, String> stored = new HashMap<>();
+        for (long key = 0; key < 1000; key++) {
+            stored.put(key * 7919, "value " + key);
+        }
+        LongHashMap<String> map = new LongHashMap<>(stored);
+        assert(map.size() == stored.size());
+        for (long key = 0; key < 1000; key++) {
+            assert(map.get(key * 7919).equals("value " + key));
+        }
+        assert(map.get(1) == null);
+    }
+
+    private static boolean equal(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
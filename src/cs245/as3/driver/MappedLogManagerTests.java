@@ -0,0 +1,204 @@
+package cs245.as3.driver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.log.MappedLogManager;
+
+public class MappedLogManagerTests {
+
+    //Small segments so that records regularly straddle two files:
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mapped-log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    public void TestReopenAndTruncate() throws IOException {
+        Random r = new Random(245);
+        List<byte[]> records = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        MappedLogManager lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            byte[] record = new byte[r.nextInt(128) + 1];
+            r.nextBytes(record);
+            offsets.add(lm.appendLogRecord(record));
+            records.add(record);
+        }
+        int end = lm.getLogEndOffset();
+        lm.close();
+
+        lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        assert(lm.getLogEndOffset() == end);
+        for (int i = 0; i < records.size(); i++) {
+            assert(Arrays.equals(lm.readLogRecord(offsets.get(i), records.get(i).length), records.get(i)));
+        }
+
+        long before = segmentFiles();
+        int truncation = offsets.get(800);
+        lm.setLogTruncationOffset(truncation);
+        assert(segmentFiles() == before - truncation / SEGMENT_SIZE);
+        //Keep appending into a new segment, which takes over a truncated file:
+        while (lm.getLogEndOffset() / SEGMENT_SIZE == end / SEGMENT_SIZE) {
+            lm.appendLogRecord(new byte[100]);
+        }
+        lm.close();
+
+        lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        assert(lm.getLogTruncationOffset() == truncation);
+        for (int i = 800; i < records.size(); i++) {
+            assert(Arrays.equals(lm.readLogRecord(offsets.get(i), records.get(i).length), records.get(i)));
+        }
+        try {
+            lm.readLogRecord(offsets.get(799), 1);
+            assert(false);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            //Truncated.
+        }
+        lm.close();
+    }
+
+    @Test
+    public void TestConcurrentAppends() throws Exception {
+        MappedLogManager lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        int nThreads = 8;
+        int perThread = 500;
+        int[][] offsets = new int[nThreads][perThread];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    byte[] record = new byte[16];
+                    Arrays.fill(record, (byte) id);
+                    record[0] = (byte) i;
+                    offsets[id][i] = lm.appendLogRecord(record);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert(lm.getLogEndOffset() == nThreads * perThread * 16);
+        lm.close();
+
+        MappedLogManager reopened = new MappedLogManager(dir, SEGMENT_SIZE);
+        for (int t = 0; t < nThreads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                byte[] record = reopened.readLogRecord(offsets[t][i], 16);
+                assert(record[0] == (byte) i);
+                assert(record[15] == (byte) t);
+            }
+        }
+        reopened.close();
+    }
+
+    //The end persisted in log.meta, which a reader must never get ahead of:
+    private long durableEnd() throws IOException {
+        byte[] meta = Files.readAllBytes(dir.resolve("log.meta"));
+        //Nothing has been flushed yet:
+        if (meta.length < 16) {
+            return 0;
+        }
+        return ByteBuffer.wrap(meta).getLong(8);
+    }
+
+    @Test
+    public void TestReadWhileAppending() throws Exception {
+        MappedLogManager lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        int nThreads = 4;
+        int perThread = 2000;
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    byte[] record = new byte[16];
+                    Arrays.fill(record, (byte) i);
+                    lm.appendLogRecord(record);
+                }
+            });
+            threads[t].start();
+        }
+        int reads = 0;
+        while (Arrays.stream(threads).anyMatch(Thread::isAlive)) {
+            long end = lm.getEndLsn();
+            assert(end <= durableEnd());
+            if (end - lm.getTruncationLsn() >= 16) {
+                byte[] record = lm.read(end - 16, 16);
+                for (byte b : record) {
+                    assert(b == record[0]);
+                }
+            }
+            //Truncate behind the readers so that segments are recycled while appends are being flushed:
+            if (++reads % 64 == 0 && end - 1024 > lm.getTruncationLsn()) {
+                lm.setTruncationLsn(end - 1024);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert(lm.getLogEndOffset() == nThreads * perThread * 16);
+        lm.setTruncationLsn(lm.getEndLsn() - 1024);
+        assert(segmentFiles() <= 2);
+        lm.close();
+    }
+
+    @Test
+    public void TestBeyondIntOffsets() throws IOException {
+        //Start from a log whose first 3 GiB have already been written and truncated:
+        long start = 3L << 30;
+        ByteBuffer meta = ByteBuffer.allocate(16).putLong(start).putLong(start);
+        Files.write(dir.resolve("log.meta"), meta.array());
+
+        MappedLogManager lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Recovery.recoverWithoutListener(sm, lm, new TransactionManager.Options());
+        for (long txID = 0; txID < 200; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % 10, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        assert(lm.getEndLsn() > start);
+        assert(sm.readLatestTaggedValue(9).tag >= start);
+        lm.close();
+
+        lm = new MappedLogManager(dir, SEGMENT_SIZE);
+        sm.crash();
+        tm = Recovery.recoverWithoutListener(sm, lm, new TransactionManager.Options());
+        for (long key = 0; key < 10; key++) {
+            assert(Arrays.equals(tm.read(1000, key), String.format("value %d", 190 + key).getBytes()));
+        }
+        lm.close();
+    }
+}
@@ -0,0 +1,131 @@
+package cs245.as3.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionConflictException;
+import cs245.as3.TransactionManager;
+
+public class OptimisticConcurrencyTests {
+
+    private static TransactionManager.Options optimisticOptions(boolean concurrent) {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.optimisticConcurrency = true;
+        options.concurrent = concurrent;
+        return options;
+    }
+
+    private static boolean conflicts(Runnable commit) {
+        try {
+            commit.run();
+            return false;
+        } catch (TransactionConflictException e) {
+            return true;
+        }
+    }
+
+    @Test
+    public void TestCommitValidatesReads() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, optimisticOptions(false));
+        tm.start(1);
+        tm.write(1, 0, "0".getBytes());
+        tm.commit(1);
+
+        //Lost update: both read key 0, the second commit must fail.
+        tm.start(2);
+        tm.start(3);
+        tm.read(2, 0);
+        tm.read(3, 0);
+        tm.write(2, 0, "2".getBytes());
+        tm.write(3, 0, "3".getBytes());
+        tm.commit(2);
+        boolean conflicted = conflicts(() -> tm.commit(3));
+        assert(conflicted);
+        assert(new String(tm.read(4, 0)).equals("2"));
+
+        //Read-only transactions are validated too, including keys that had no value when read.
+        tm.start(5);
+        tm.read(5, 1);
+        tm.start(6);
+        tm.write(6, 1, "6".getBytes());
+        tm.commit(6);
+        conflicted = conflicts(() -> tm.commit(5));
+        assert(conflicted);
+
+        //Blind writes and reads of unchanged keys commit.
+        tm.start(7);
+        tm.start(8);
+        tm.read(7, 1);
+        tm.write(7, 0, "7".getBytes());
+        tm.write(8, 0, "8".getBytes());
+        tm.commit(8);
+        tm.commit(7);
+        assert(new String(tm.read(9, 0)).equals("7"));
+
+        //Within one group the later transaction conflicts with an earlier member's write.
+        tm.start(10);
+        tm.start(11);
+        tm.read(11, 0);
+        tm.write(10, 0, "10".getBytes());
+        tm.write(11, 0, "11".getBytes());
+        tm.commitAsync(10).join();
+        try {
+            tm.commitAsync(11).join();
+            assert(false);
+        } catch (CompletionException e) {
+            assert(e.getCause() instanceof TransactionConflictException);
+        }
+
+        //Aborted writes never reached the log.
+        sm.crash();
+        TransactionManager recovered = Recovery.recover(sm, lm, optimisticOptions(false));
+        assert(new String(recovered.read(12, 0)).equals("10"));
+        assert(new String(recovered.read(12, 1)).equals("6"));
+    }
+
+    @Test
+    public void TestConcurrentIncrementsAreSerializable() throws InterruptedException {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, optimisticOptions(true));
+        sm.startBackgroundPersistence(1, 1, 1000);
+        AtomicLong txIDs = new AtomicLong();
+        int threads = 4;
+        int increments = 500;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    while (true) {
+                        long txID = txIDs.incrementAndGet();
+                        tm.start(txID);
+                        byte[] value = tm.read(txID, 0);
+                        long counter = value == null ? 0 : Long.parseLong(new String(value));
+                        tm.write(txID, 0, Long.toString(counter + 1).getBytes());
+                        try {
+                            tm.commit(txID);
+                            break;
+                        } catch (TransactionConflictException e) {
+                            //Retry under a new txID.
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        sm.stopBackgroundPersistence(true);
+        long counter = Long.parseLong(new String(tm.read(txIDs.incrementAndGet(), 0)));
+        assert(counter == threads * increments);
+    }
+}
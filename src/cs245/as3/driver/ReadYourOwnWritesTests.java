@@ -0,0 +1,45 @@
+package cs245.as3.driver;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+
+public class ReadYourOwnWritesTests {
+
+    @Test
+    public void TestReadOwnWrites() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.readYourOwnWrites = true;
+        TransactionManager tm = Recovery.recover(sm, lm, options);
+
+        tm.start(1);
+        tm.write(1, 0, "committed".getBytes());
+        tm.commit(1);
+
+        tm.start(2);
+        tm.start(3);
+        tm.write(2, 0, "first".getBytes());
+        tm.write(2, 0, "second".getBytes());
+        for (long key = 1; key < 1000; key++) {
+            tm.write(2, key, ("value " + key).getBytes());
+        }
+        //The writer sees its latest write, everyone else the committed value.
+        assert(new String(tm.read(2, 0)).equals("second"));
+        assert(new String(tm.read(3, 0)).equals("committed"));
+        assert(new String(tm.read(2, 999)).equals("value 999"));
+        assert(tm.read(3, 999) == null);
+        ByteBuffer dst = ByteBuffer.allocate(16);
+        int length = tm.read(2, 0, dst);
+        assert(length == 6);
+        assert(new String(dst.array(), 0, 6).equals("second"));
+
+        tm.abort(2);
+        assert(new String(tm.read(2, 0)).equals("committed"));
+        assert(tm.read(3, 999) == null);
+        tm.commit(3);
+    }
+}
@@ -0,0 +1,37 @@
+package cs245.as3.driver;
+
+import cs245.as3.TransactionManager;
+import cs245.as3.interfaces.LogManager;
+
+/**
+ * Recovers a new transaction manager on top of a storage manager and log, as TransactionManagerTests does.
+ */
+final class Recovery {
+
+    private Recovery() {
+    }
+
+    /**
+     * The storage manager reports persisted writes to the new transaction manager from the start, so writes
+     * persisted while recovery is still running truncate the log too.
+     */
+    static TransactionManager recover(StorageManagerImpl sm, LogManager lm, TransactionManager.Options options) {
+        return recover(sm, lm, options, true);
+    }
+
+    /**
+     * Recovers without a persistence listener: the log is never truncated, so later recoveries replay all of it.
+     */
+    static TransactionManager recoverWithoutListener(StorageManagerImpl sm, LogManager lm, TransactionManager.Options options) {
+        return recover(sm, lm, options, false);
+    }
+
+    private static TransactionManager recover(StorageManagerImpl sm, LogManager lm, TransactionManager.Options options, boolean listen) {
+        TransactionManager tm = new TransactionManager(options);
+        sm.setPersistenceListener(listen ? tm : null);
+        sm.in_recovery = true;
+        tm.initAndRecover(sm, lm);
+        sm.in_recovery = false;
+        return tm;
+    }
+}
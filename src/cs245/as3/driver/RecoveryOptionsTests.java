@@ -0,0 +1,110 @@
+package cs245.as3.driver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+
+/**
+ * Recovery must produce the same state whichever replay options are enabled.
+ */
+public class RecoveryOptionsTests {
+
+    private static final int N_KEYS = 200;
+
+    private void TestRecoveryTemplate(TransactionManager.Options options) {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        //No persistence listener: the whole log stays around and has to be replayed.
+        TransactionManager tm = Recovery.recoverWithoutListener(sm, lm, options);
+
+        Random r = new Random(245);
+        HashMap<Long, byte[]> committed = new HashMap<>();
+        for (int txID = 0; txID < 2000; txID++) {
+            tm.start(txID);
+            HashMap<Long, byte[]> writes = new HashMap<>();
+            for (int i = 0; i < 5; i++) {
+                long key = r.nextInt(N_KEYS);
+                byte[] value = new byte[r.nextInt(150) + 1];
+                r.nextBytes(value);
+                tm.write(txID, key, value);
+                writes.put(key, value);
+            }
+            if (r.nextInt(10) == 0) {
+                tm.abort(txID);
+            } else {
+                tm.commit(txID);
+                committed.putAll(writes);
+            }
+            if (txID == 1000) {
+                sm.do_persistence_work();
+            }
+        }
+        sm.crash();
+
+        tm = Recovery.recoverWithoutListener(sm, lm, options);
+        for (long key = 0; key < N_KEYS; key++) {
+            assert(Arrays.equals(tm.read(3000, key), committed.get(key)));
+            assert(Arrays.equals(sm.readLatestValue(key), committed.get(key)));
+        }
+        if (!options.skipPersistedRedo) {
+            assert(tm.getSkippedRedoWrites() == 0);
+        }
+    }
+
+    @Test
+    public void TestAllWrites() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.recoverLatestVersionOnly = false;
+        options.skipPersistedRedo = false;
+        TestRecoveryTemplate(options);
+    }
+
+    @Test
+    public void TestLatestVersionOnly() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.skipPersistedRedo = false;
+        TestRecoveryTemplate(options);
+    }
+
+    @Test
+    public void TestSkipPersisted() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.recoverLatestVersionOnly = false;
+        TestRecoveryTemplate(options);
+    }
+
+    @Test
+    public void TestParallel() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.recoveryThreads = 4;
+        TestRecoveryTemplate(options);
+        options.recoverLatestVersionOnly = false;
+        options.skipPersistedRedo = false;
+        TestRecoveryTemplate(options);
+    }
+
+    @Test
+    public void TestSkippedWritesReported() {
+        LogManagerImpl lm = new LogManagerImpl();
+        StorageManagerImpl sm = new StorageManagerImpl();
+        TransactionManager tm = Recovery.recoverWithoutListener(sm, lm, new TransactionManager.Options());
+        for (int txID = 0; txID < 10; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID, String.format("%d padding", txID).getBytes());
+            tm.commit(txID);
+        }
+        //Everything is persisted, but without a listener the log is never truncated:
+        sm.do_persistence_work();
+        sm.crash();
+
+        tm = Recovery.recoverWithoutListener(sm, lm, new TransactionManager.Options());
+        assert(tm.getSkippedRedoWrites() == 10);
+        for (long key = 0; key < 10; key++) {
+            assert(Arrays.equals(tm.read(20, key), String.format("%d padding", key).getBytes()));
+        }
+    }
+}
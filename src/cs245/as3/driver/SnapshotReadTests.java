@@ -0,0 +1,53 @@
+package cs245.as3.driver;
+
+import org.junit.Test;
+
+import cs245.as3.TransactionManager;
+
+public class SnapshotReadTests {
+
+    private static TransactionManager.Options snapshotOptions() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.snapshotReads = true;
+        return options;
+    }
+
+    private static void commit(TransactionManager tm, long txID, long[] keys, String value) {
+        tm.start(txID);
+        for (long key : keys) {
+            tm.write(txID, key, value.getBytes());
+        }
+        tm.commit(txID);
+    }
+
+    @Test
+    public void TestReadsSeeSnapshotAtStart() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, snapshotOptions());
+        commit(tm, 1, new long[] {0, 1}, "old");
+
+        //A long transaction keeps reading the values committed before it started.
+        tm.start(2);
+        for (long txID = 3; txID < 100; txID++) {
+            commit(tm, txID, new long[] {0, 1}, "new " + txID);
+            assert(new String(tm.read(2, 0)).equals("old"));
+            assert(new String(tm.read(2, 1)).equals("old"));
+        }
+        commit(tm, 100, new long[] {2}, "new key");
+        assert(tm.read(2, 2) == null);
+
+        tm.start(101);
+        assert(new String(tm.read(101, 0)).equals("new 99"));
+        assert(new String(tm.read(101, 2)).equals("new key"));
+        tm.commit(2);
+        tm.abort(101);
+
+        //Snapshots taken after recovery see everything recovered.
+        sm.crash();
+        tm = Recovery.recover(sm, lm, snapshotOptions());
+        tm.start(200);
+        assert(new String(tm.read(200, 1)).equals("new 99"));
+        assert(new String(tm.read(200, 2)).equals("new key"));
+    }
+}
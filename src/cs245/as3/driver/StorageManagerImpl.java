@@ -1,8 +1,13 @@
 package cs245.as3.driver;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 
 import cs245.as3.TransactionManager;
@@ -16,12 +21,23 @@ import cs245.as3.interfaces.StorageManager;
 public class StorageManagerImpl implements StorageManager {
 	//Stores queued writes for each key.
 	private final ConcurrentHashMap<Long, StorageManagerEntry> entries;
+	//Queued writes that are not persisted yet, split by key into STRIPES stripes.
+	private static final int STRIPES = 16;
+	private final Stripe[] stripes;
+	//Background persistence threads, null when persistence only happens through do_persistence_work.
+	private volatile Thread[] workers;
+	//Wakes idle workers up when they are stopped.
+	private final Object workers_wakeup = new Object();
 	//Policy to determine which keys not to persist - used for testing purposes 
-	private long[] dont_persist_keys;
+	private volatile HashSet<Long> dont_persist_keys;
 	//Set when we are in the middle of recovery just to detect weird calls to readStoredTable.
 	protected boolean in_recovery;
 	//persistedWrite is called on the transaction manager whenever a queued write becomes persistent.
 	private TransactionManager persistence_listener;
+	//When set, a sweep reports everything it persisted in one batched writePersisted call at its end.
+	private volatile boolean batch_callbacks;
+	//When set, a new version replaces a queued version of the same key that is not persisted yet.
+	private volatile boolean coalesce_versions;
 	
 	private class StorageManagerEntry {
 		//latest_version always points to the end of versions
@@ -29,6 +45,8 @@ public class StorageManagerImpl implements StorageManager {
 		volatile TaggedValue latest_version;
 		volatile TaggedValue persisted_version;
 		ArrayDeque<TaggedValue> versions;
+		//Set while the key is in its stripe's pending queue; guarded by the entry's monitor.
+		boolean scheduled;
 		
 		public StorageManagerEntry() {
 			versions = new ArrayDeque<>();
@@ -36,9 +54,58 @@ public class StorageManagerImpl implements StorageManager {
 			persisted_version = null;
 		}
 	}
+
+	//A key with queued versions, under the tag of its oldest one. Ordered by tag, ties broken by queue order.
+	private static class PendingWrite implements Comparable<PendingWrite> {
+		final long tag;
+		final long seq;
+		final long key;
+
+		PendingWrite(long tag, long seq, long key) {
+			this.tag = tag;
+			this.seq = seq;
+			this.key = key;
+		}
+
+		public int compareTo(PendingWrite other) {
+			int c = Long.compare(tag, other.tag);
+			return c != 0 ? c : Long.compare(seq, other.seq);
+		}
+	}
+
+	//The (key, tag) pairs persisted by one sweep, handed to the listener in one call.
+	private static class PersistedBatch {
+		long[] keys = new long[64];
+		long[] tags = new long[64];
+		int count;
+
+		void add(long key, long tag) {
+			if (count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+				tags = Arrays.copyOf(tags, count * 2);
+			}
+			keys[count] = key;
+			tags[count] = tag;
+			count++;
+		}
+	}
+
+	//The queued writes of the keys in one stripe. Persisting happens with the stripe's monitor held,
+	//so a key is persisted by one thread at a time and its callbacks arrive in queue order.
+	private static class Stripe {
+		//Oldest tag first, each key at most once; guarded by its own monitor, as are seq and queued.
+		final PriorityQueue<PendingWrite> pending = new PriorityQueue<>();
+		long seq;
+		//Number of versions queued in this stripe that are not persisted yet.
+		int queued;
+	}
 	
 	protected StorageManagerImpl() {
 		entries = new ConcurrentHashMap<>();
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
 		in_recovery = false;
 		dont_persist_keys = null;
 	}
@@ -55,8 +122,23 @@ public class StorageManagerImpl implements StorageManager {
 		}
 		TaggedValue tv = new TaggedValue(tag, value);
 		synchronized(entry) {
+			//The superseded version is never persisted; the callback for tv covers it.
+			boolean superseded = coalesce_versions && entry.latest_version != null && entry.latest_version != entry.persisted_version;
+			if (superseded) {
+				entry.versions.removeLast();
+			}
 			entry.latest_version = tv;
 			entry.versions.add(tv);
+			Stripe stripe = stripeOf(key);
+			synchronized(stripe.pending) {
+				if (!superseded) {
+					stripe.queued++;
+				}
+				if (!entry.scheduled) {
+					entry.scheduled = true;
+					stripe.pending.add(new PendingWrite(tag, stripe.seq++, key));
+				}
+			}
 		}
 	}
 
@@ -83,6 +165,18 @@ public class StorageManagerImpl implements StorageManager {
 		persistence_listener = tm;
 	}
 
+	//In coalescing mode at most one unpersisted version is kept per key, and writePersisted reports only the newest
+	//of the versions it replaced. The listener must treat that tag as covering every earlier queued tag of the key.
+	protected void setCoalescedVersions(boolean coalesce) {
+		coalesce_versions = coalesce;
+	}
+
+	//Switches between one writePersisted call per version (the default) and one batched call per sweep.
+	//Batches are delivered at the end of a sweep, so their order relative to another thread's sweep is not fixed.
+	protected void setBatchedPersistenceCallbacks(boolean batched) {
+		batch_callbacks = batched;
+	}
+
 	/**
 	  * Returns the latest value queued for a particular key. Used only for testing.
 	  */
@@ -103,23 +197,30 @@ public class StorageManagerImpl implements StorageManager {
 		return null;
 	}
 
+	private Stripe stripeOf(long key) {
+		return stripes[Math.floorMod(Long.hashCode(key) * 0x9E3779B9, STRIPES)];
+	}
+
 	private boolean shouldPersist(long key) {
-		if (dont_persist_keys != null) {
-			for(long k : dont_persist_keys) {
-				if (k == key) {
-					return false;
-				}
-			}
-		}
-		return true;
+		HashSet<Long> blocked = dont_persist_keys;
+		return blocked == null || !blocked.contains(key);
 	}
 	
 	//Forget all non-persisted versions. Called only by the driver code to simulate a crash.
 	protected void crash() {
+		//Background workers die with the process:
+		stopBackgroundPersistence(false);
 		//Break the reference to the persistence listener here:
 		persistence_listener = null;
+		for (Stripe stripe : stripes) {
+			synchronized(stripe.pending) {
+				stripe.pending.clear();
+				stripe.queued = 0;
+			}
+		}
 		for(Entry<Long, StorageManagerEntry> entry : entries.entrySet()) {
 			StorageManagerEntry sme = entry.getValue();
+			sme.scheduled = false;
 			sme.versions.clear();
 			if (sme.persisted_version != null) {
 				//Only remember the persisted version
@@ -129,60 +230,254 @@ public class StorageManagerImpl implements StorageManager {
 		}
 	}
 	
-	//Persists a particular key. If multiple versions of the value for the key are queued,
-	//only the latest queued value is persisted.
+	//Persists the oldest queued version of a particular key that is not persisted yet.
 	//
 	//Returns true if anything needed to be persisted.
 	protected boolean persist(long key, StorageManagerEntry entry) {
-		boolean did_persistence = false;
-		TaggedValue latest_version = entry.latest_version;
-		TaggedValue persisted_version = entry.persisted_version;
-		if (latest_version == persisted_version) {
-			return did_persistence;
-		}
+		return persist(key, entry, null);
+	}
+
+	//As persist(key, entry), but if batch is not null the persisted version is added to it instead of reported.
+	protected boolean persist(long key, StorageManagerEntry entry, PersistedBatch batch) {
 		//Here you can simulate the duration of a writeout, we don't.
-		while(true) {
-			//Persist each version in the queue in sequence.
-			synchronized(entry) {
-				if (entry.persisted_version != null && entry.versions.size() == 1) {
-					//Nothing to do, everything persisted.
-					break;
-				}
-				if (entry.persisted_version != null) {
-					entry.versions.removeFirst();
-				}
-				entry.persisted_version = entry.versions.getFirst();
+		synchronized(entry) {
+			if (entry.latest_version == entry.persisted_version) {
+				//Nothing to do, everything persisted.
+				return false;
 			}
-			//We just persisted entry.persisted_version.
-			//This can only fail due to an error in a test
-			if (persistence_listener != null) {
-				persistence_listener.writePersisted(key, entry.persisted_version.tag, entry.persisted_version.value);
+			if (entry.persisted_version != null) {
+				entry.versions.removeFirst();
 			}
-			did_persistence = true;
-
-	   		assert(!Thread.interrupted()); //Cooperate with timeout:
+			entry.persisted_version = entry.versions.getFirst();
 		}
-		return did_persistence;
+		//We just persisted entry.persisted_version.
+		//This can only fail due to an error in a test
+		if (batch != null) {
+			batch.add(key, entry.persisted_version.tag);
+		} else if (persistence_listener != null) {
+			persistence_listener.writePersisted(key, entry.persisted_version.tag, entry.persisted_version.value);
+		}
+   		assert(!Thread.interrupted()); //Cooperate with timeout:
+		return true;
 	}
 	
 	protected boolean do_persistence_work() {
+		return do_persistence_work(Integer.MAX_VALUE);
+	}
+
+	//Persists at most max_writes queued writes, oldest tag first, so that the write holding back log truncation
+	//goes out before newer ones. Writes queued during the sweep and writes to blocked keys are left for a later sweep.
+	protected boolean do_persistence_work(int max_writes) {
 		boolean did_work = false;
-		//Perform a fuzzy checkpoint. Go over all keys and persist while simulating a delay.
-		for(Entry<Long, StorageManagerEntry> entry : entries.entrySet()) {
-			StorageManagerEntry sme = entry.getValue();
-			if (!shouldPersist(entry.getKey())) {
-				continue;
+		ArrayList<PendingWrite> skipped = new ArrayList<>();
+		PersistedBatch batch = batch_callbacks ? new PersistedBatch() : null;
+		for (int n = queuedCount(), done = 0; done < n && done < max_writes; ) {
+			Stripe stripe = oldestStripe();
+			if (stripe == null) {
+				break;
 			}
-			try {
-				did_work |= persist(entry.getKey(), sme);
-			} catch (CrashException e) {
-				//Ignore crash exception.
+			synchronized(stripe) {
+				//A background worker may have taken the key we saw, then this is the stripe's next one.
+				PendingWrite write = poll(stripe);
+				if (write == null) {
+					continue;
+				}
+				if (!shouldPersist(write.key)) {
+					skipped.add(write);
+					continue;
+				}
+				did_work |= persist(stripe, write, batch);
+				done++;
 			}
 		}
+		report(batch);
+		requeue(skipped);
 		return did_work;
 	}
+
+	//Persists at most max_writes of the writes queued in one stripe, oldest tag first.
+	private boolean sweep(Stripe stripe, int max_writes) {
+		boolean did_work = false;
+		ArrayList<PendingWrite> skipped = new ArrayList<>();
+		PersistedBatch batch = batch_callbacks ? new PersistedBatch() : null;
+		synchronized(stripe) {
+			int n;
+			synchronized(stripe.pending) {
+				n = stripe.queued;
+			}
+			for (int done = 0; done < n && done < max_writes; ) {
+				PendingWrite write = poll(stripe);
+				if (write == null) {
+					break;
+				}
+				if (!shouldPersist(write.key)) {
+					skipped.add(write);
+					continue;
+				}
+				did_work |= persist(stripe, write, batch);
+				done++;
+			}
+			report(batch);
+		}
+		requeue(skipped);
+		return did_work;
+	}
+
+	//Persists the oldest queued version of write.key, then puts the key back under the tag of its next one.
+	//Called with the stripe's monitor held.
+	private boolean persist(Stripe stripe, PendingWrite write, PersistedBatch batch) {
+		StorageManagerEntry entry = entries.get(write.key);
+		try {
+			return persist(write.key, entry, batch);
+		} catch (CrashException e) {
+			//Ignore crash exception; the write was persisted, only the callback failed.
+			return false;
+		} finally {
+			synchronized(entry) {
+				synchronized(stripe.pending) {
+					stripe.queued--;
+					if (entry.latest_version == entry.persisted_version) {
+						entry.scheduled = false;
+					} else {
+						Iterator<TaggedValue> versions = entry.versions.iterator();
+						//The first version is the persisted one.
+						versions.next();
+						stripe.pending.add(new PendingWrite(versions.next().tag, stripe.seq++, write.key));
+					}
+				}
+			}
+		}
+	}
+
+	private void report(PersistedBatch batch) {
+		TransactionManager listener = persistence_listener;
+		if (batch == null || batch.count == 0 || listener == null) {
+			return;
+		}
+		try {
+			listener.writePersisted(batch.keys, batch.tags, batch.count);
+		} catch (CrashException e) {
+			//Ignore crash exception; the writes were persisted, only the callback failed.
+		}
+	}
+
+	private PendingWrite poll(Stripe stripe) {
+		synchronized(stripe.pending) {
+			return stripe.pending.poll();
+		}
+	}
+
+	private void requeue(ArrayList<PendingWrite> writes) {
+		for (PendingWrite write : writes) {
+			Stripe stripe = stripeOf(write.key);
+			synchronized(stripe.pending) {
+				stripe.pending.add(write);
+			}
+		}
+	}
+
+	private int queuedCount() {
+		int n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized(stripe.pending) {
+				n += stripe.queued;
+			}
+		}
+		return n;
+	}
+
+	//The stripe whose oldest queued write has the lowest tag, or null if nothing is queued.
+	private Stripe oldestStripe() {
+		Stripe oldest = null;
+		PendingWrite oldest_write = null;
+		for (Stripe stripe : stripes) {
+			synchronized(stripe.pending) {
+				PendingWrite write = stripe.pending.peek();
+				if (write != null && (oldest_write == null || write.compareTo(oldest_write) < 0)) {
+					oldest = stripe;
+					oldest_write = write;
+				}
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	  * Starts n_workers background threads that persist queued writes. The stripes are divided among the workers,
+	  * so each key is owned by exactly one of them. Every interval_millis a worker persists up to
+	  * max_writes_per_sweep of the oldest writes in each of its stripes, which bounds the flush rate.
+	  */
+	protected synchronized void startBackgroundPersistence(int n_workers, long interval_millis, int max_writes_per_sweep) {
+		if (workers != null) {
+			throw new IllegalStateException("Background persistence is already running.");
+		}
+		Thread[] pool = new Thread[Math.max(1, Math.min(n_workers, STRIPES))];
+		for (int w = 0; w < pool.length; w++) {
+			final int id = w;
+			pool[w] = new Thread(() -> runWorker(pool, id, Math.max(1, interval_millis), max_writes_per_sweep), "persistence-" + w);
+			pool[w].setDaemon(true);
+		}
+		workers = pool;
+		for (Thread worker : pool) {
+			worker.start();
+		}
+	}
+
+	/**
+	  * Stops the background threads and waits for them to exit. With drain set, everything queued so far is
+	  * persisted before returning, as on a clean shutdown; otherwise queued writes stay queued.
+	  */
+	protected void stopBackgroundPersistence(boolean drain) {
+		Thread[] pool;
+		synchronized(this) {
+			pool = workers;
+			workers = null;
+		}
+		if (pool != null) {
+			synchronized(workers_wakeup) {
+				workers_wakeup.notifyAll();
+			}
+			for (Thread worker : pool) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		if (drain) {
+			do_persistence_work();
+		}
+	}
+
+	private void runWorker(Thread[] pool, int id, long interval_millis, int max_writes_per_sweep) {
+		while (workers == pool) {
+			for (int s = id; s < STRIPES; s += pool.length) {
+				sweep(stripes[s], max_writes_per_sweep);
+			}
+			synchronized(workers_wakeup) {
+				if (workers != pool) {
+					break;
+				}
+				try {
+					workers_wakeup.wait(interval_millis);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
 	
 	protected void blockPersistenceForKeys(long[] keys) {
-		dont_persist_keys = keys;
+		if (keys == null) {
+			dont_persist_keys = null;
+			return;
+		}
+		HashSet<Long> blocked = new HashSet<>();
+		for (long k : keys) {
+			blocked.add(k);
+		}
+		dont_persist_keys = blocked;
 	}
 }
@@ -1,7 +1,12 @@
 package cs245.as3.driver;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
+import cs245.as3.TransactionManager;
 import cs245.as3.interfaces.StorageManager.TaggedValue;
 
 /**
@@ -43,4 +48,277 @@ public class StorageManagerTests {
     	assert(tv.tag == tag);
     	assert(tv.value == value);
     }
+
+    //Counts persistence callbacks instead of truncating a log.
+    private static class CountingListener extends TransactionManager {
+        int persisted;
+        long lastTag = -1;
+        boolean inTagOrder = true;
+
+        @Override
+        public void writePersisted(long key, long persisted_tag, byte[] persisted_value) {
+            persisted++;
+            inTagOrder &= persisted_tag > lastTag;
+            lastTag = persisted_tag;
+        }
+
+        int batches;
+
+        @Override
+        public void writePersisted(long[] keys, long[] persisted_tags, int count) {
+            batches++;
+            for (int i = 0; i < count; i++) {
+                writePersisted(keys[i], persisted_tags[i], null);
+            }
+        }
+    }
+
+    @Test
+    public void TestSweepOnlyVisitsDirtyKeys() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        CountingListener listener = new CountingListener();
+        sm.setPersistenceListener(listener);
+        byte[] value = "value".getBytes();
+        for (long key = 0; key < 10000; key++) {
+            sm.queueWrite(key, key, value);
+        }
+        boolean worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.persisted == 10000);
+
+        //Nothing queued: a sweep has nothing to do.
+        worked = sm.do_persistence_work();
+        assert(!worked);
+
+        sm.blockPersistenceForKeys(new long[] {5});
+        sm.queueWrite(5, 10000, value);
+        sm.queueWrite(6, 10001, value);
+        sm.queueWrite(6, 10002, value);
+        sm.queueWrite(7, 10003, value);
+        listener.persisted = 0;
+        worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.persisted == 3);
+        assert(sm.readLatestTaggedValue(5).tag == 10000);
+
+        //The blocked key stays scheduled until it is unblocked.
+        worked = sm.do_persistence_work();
+        assert(!worked);
+        sm.blockPersistenceForKeys(null);
+        worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.persisted == 4);
+        sm.crash();
+        assert(sm.readLatestTaggedValue(5).tag == 10000);
+    }
+
+    @Test
+    public void TestBoundedSweepPersistsOldestFirst() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        CountingListener listener = new CountingListener();
+        sm.setPersistenceListener(listener);
+        byte[] value = "value".getBytes();
+        //Tags are spread over keys in an order unrelated to the keys' hashes.
+        for (long tag = 0; tag < 1000; tag++) {
+            sm.queueWrite((tag * 7919) % 101, tag, value);
+        }
+        boolean worked = sm.do_persistence_work(10);
+        assert(worked);
+        assert(listener.persisted == 10);
+        assert(listener.lastTag == 9);
+        worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.persisted == 1000);
+        assert(listener.inTagOrder);
+        worked = sm.do_persistence_work(10);
+        assert(!worked);
+    }
+
+    //Checks that callbacks arrive in queue order per key, whichever thread makes them.
+    private static class OrderCheckingListener extends TransactionManager {
+        final ConcurrentHashMap<Long, Long> lastTags = new ConcurrentHashMap<>();
+        final AtomicInteger persisted = new AtomicInteger();
+        volatile boolean inKeyOrder = true;
+
+        @Override
+        public void writePersisted(long key, long persisted_tag, byte[] persisted_value) {
+            Long last = lastTags.put(key, persisted_tag);
+            if (last != null && last >= persisted_tag) {
+                inKeyOrder = false;
+            }
+            persisted.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void TestBackgroundPersistence() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        OrderCheckingListener listener = new OrderCheckingListener();
+        sm.setPersistenceListener(listener);
+        sm.startBackgroundPersistence(4, 1, 100);
+        byte[] value = "value".getBytes();
+        for (long tag = 0; tag < 20000; tag++) {
+            sm.queueWrite(tag % 97, tag, value);
+        }
+        sm.stopBackgroundPersistence(true);
+        assert(listener.persisted.get() == 20000);
+        assert(listener.inKeyOrder);
+        boolean worked = sm.do_persistence_work();
+        assert(!worked);
+
+        //A transaction manager on top keeps truncating its log from the workers' callbacks.
+        sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, new TransactionManager.Options());
+        sm.startBackgroundPersistence(4, 1, 100);
+        for (long txID = 0; txID < 5000; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % 50, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        sm.stopBackgroundPersistence(true);
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+
+        //Crash while the workers are running: whatever they did not persist is recovered from the log.
+        sm.startBackgroundPersistence(2, 1, 1);
+        for (long txID = 5000; txID < 6000; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % 50, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        sm.crash();
+        tm = Recovery.recover(sm, lm, new TransactionManager.Options());
+        for (long key = 0; key < 50; key++) {
+            assert(Arrays.equals(tm.read(6000, key), String.format("value %d", 5950 + key).getBytes()));
+        }
+    }
+
+    private void TestRecoverWhileWorkersRunTemplate(TransactionManager.Options options) {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager tm = Recovery.recover(sm, lm, options);
+        sm.blockPersistenceForKeys(new long[] {0});
+        for (long txID = 0; txID < 2000; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % 50, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        sm.crash();
+        sm.blockPersistenceForKeys(null);
+
+        //The workers persist replayed writes while recovery is still queueing the rest.
+        sm.startBackgroundPersistence(4, 1, 1);
+        tm = Recovery.recover(sm, lm, options);
+        sm.stopBackgroundPersistence(true);
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+        for (long key = 0; key < 50; key++) {
+            assert(Arrays.equals(tm.read(2000, key), String.format("value %d", 1950 + key).getBytes()));
+        }
+    }
+
+    @Test
+    public void TestRecoverWhileWorkersRun() {
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.recoverLatestVersionOnly = false;
+        TestRecoverWhileWorkersRunTemplate(options);
+        options.checkpointInterval = 1024;
+        TestRecoverWhileWorkersRunTemplate(options);
+    }
+
+    //Counts how often the transaction manager moves the truncation point.
+    private static class CountingLogManager extends LogManagerImpl {
+        int truncations;
+
+        @Override
+        public synchronized void setLogTruncationOffset(int offset) {
+            truncations++;
+            super.setLogTruncationOffset(offset);
+        }
+    }
+
+    @Test
+    public void TestBatchedCallbacks() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        CountingListener listener = new CountingListener();
+        sm.setPersistenceListener(listener);
+        sm.setBatchedPersistenceCallbacks(true);
+        byte[] value = "value".getBytes();
+        for (long tag = 0; tag < 1000; tag++) {
+            sm.queueWrite(tag % 10, tag, value);
+        }
+        boolean worked = sm.do_persistence_work(100);
+        assert(worked);
+        assert(listener.batches == 1);
+        assert(listener.persisted == 100);
+        assert(listener.lastTag == 99);
+        worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.batches == 2);
+        assert(listener.persisted == 1000);
+        assert(listener.inTagOrder);
+
+        sm = new StorageManagerImpl();
+        CountingLogManager lm = new CountingLogManager();
+        sm.setBatchedPersistenceCallbacks(true);
+        TransactionManager tm = Recovery.recover(sm, lm, new TransactionManager.Options());
+        for (long txID = 0; txID < 1000; txID++) {
+            tm.start(txID);
+            tm.write(txID, txID % 10, value);
+            tm.write(txID, txID % 10 + 10, value);
+            tm.commit(txID);
+        }
+        sm.do_persistence_work();
+        assert(lm.truncations == 1);
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+    }
+
+    @Test
+    public void TestCoalescedVersions() {
+        StorageManagerImpl sm = new StorageManagerImpl();
+        CountingListener listener = new CountingListener();
+        sm.setPersistenceListener(listener);
+        sm.setCoalescedVersions(true);
+        byte[] value = "value".getBytes();
+        for (long tag = 0; tag < 1000; tag++) {
+            sm.queueWrite(tag % 2, tag, value);
+        }
+        boolean worked = sm.do_persistence_work();
+        assert(worked);
+        assert(listener.persisted == 2);
+        assert(listener.lastTag == 999);
+
+        //A hot key written faster than it is persisted: one callback covers all of its versions.
+        sm = new StorageManagerImpl();
+        LogManagerImpl lm = new LogManagerImpl();
+        TransactionManager.Options options = new TransactionManager.Options();
+        options.coalescedPersistence = true;
+        sm.setCoalescedVersions(true);
+        TransactionManager tm = Recovery.recover(sm, lm, options);
+        for (long txID = 0; txID < 1000; txID++) {
+            tm.start(txID);
+            tm.write(txID, 0, String.format("value %d", txID).getBytes());
+            tm.write(txID, txID % 10 + 1, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+            if (txID % 100 == 99) {
+                sm.do_persistence_work();
+                assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+            }
+        }
+
+        //Writes left queued are still recovered from the log.
+        sm.blockPersistenceForKeys(new long[] {0});
+        for (long txID = 1000; txID < 1100; txID++) {
+            tm.start(txID);
+            tm.write(txID, 0, String.format("value %d", txID).getBytes());
+            tm.commit(txID);
+        }
+        sm.do_persistence_work();
+        assert(lm.getLogTruncationOffset() < lm.getLogEndOffset());
+        sm.crash();
+        sm.blockPersistenceForKeys(null);
+        tm = Recovery.recover(sm, lm, options);
+        assert(Arrays.equals(tm.read(1100, 0), "value 1099".getBytes()));
+        sm.do_persistence_work();
+        assert(lm.getLogTruncationOffset() == lm.getLogEndOffset());
+    }
 }
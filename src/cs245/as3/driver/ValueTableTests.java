@@ -0,0 +1,110 @@
+package cs245.as3.driver;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cs245.as3.store.OffHeapValueTable;
+import cs245.as3.store.ValueTable;
+import cs245.as3.store.VersionedValueTable;
+
+public class ValueTableTests {
+
+    @Test
+    public void TestOffHeapMatchesHashMap() {
+        Random r = new Random(245);
+        HashMap<Long, byte[]> expected = new HashMap<>();
+        HashMap<Long, Long> expectedTags = new HashMap<>();
+        //Small slabs so that values regularly spill into new slabs and free lists get reused:
+        OffHeapValueTable table = new OffHeapValueTable(4096);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = r.nextInt(1000);
+            //Occasionally write values bigger than a slab:
+            byte[] value = new byte[r.nextInt(100) == 0 ? 5000 : r.nextInt(200)];
+            r.nextBytes(value);
+            table.put(key, i, value);
+            expected.put(key, value);
+            expectedTags.put(key, (long) i);
+        }
+        assert(table.size() == expected.size());
+
+        ByteBuffer dst = ByteBuffer.allocate(8192);
+        for (long key = 0; key < 1000; key++) {
+            byte[] value = expected.get(key);
+            if (value == null) {
+                assert(table.getValue(key) == null);
+                assert(table.getTag(key) == ValueTable.NO_TAG);
+                int length = table.read(key, dst);
+                assert(length == -1);
+                continue;
+            }
+            assert(Arrays.equals(table.getValue(key), value));
+            assert(table.getTag(key) == expectedTags.get(key));
+
+            dst.clear();
+            int length = table.read(key, dst);
+            assert(length == value.length);
+            assert(Arrays.equals(Arrays.copyOf(dst.array(), value.length), value));
+
+            ByteBuffer view = table.view(key);
+            assert(view.isReadOnly());
+            byte[] viewed = new byte[view.remaining()];
+            view.get(viewed);
+            assert(Arrays.equals(viewed, value));
+        }
+
+        //A destination that is too small is rejected and leaves both the buffer and the table untouched.
+        long key = 0;
+        while (expected.get(key) == null || expected.get(key).length < 2) {
+            key++;
+        }
+        dst.clear();
+        dst.limit(expected.get(key).length - 1);
+        try {
+            table.read(key, dst);
+            assert(false);
+        } catch (BufferOverflowException e) {
+            assert(dst.position() == 0);
+        }
+        table.put(key, 100000, expected.get(key));
+        assert(table.getTag(key) == 100000);
+        dst.clear();
+        int length = table.read(key, dst);
+        assert(length == expected.get(key).length);
+        assert(Arrays.equals(table.getValue(key), expected.get(key)));
+    }
+
+    @Test
+    public void TestVersionedSnapshotsAndGarbageCollection() {
+        VersionedValueTable table = new VersionedValueTable();
+        table.put(1, 10, "a".getBytes());
+        table.publish(11);
+        long first = table.openSnapshot();
+
+        for (long tag = 20; tag < 120; tag += 10) {
+            table.put(1, tag, ("v" + tag).getBytes());
+            table.publish(tag + 1);
+        }
+        long second = table.openSnapshot();
+        table.put(1, 200, "uncommitted".getBytes());
+
+        assert(new String(table.getValue(1, first)).equals("a"));
+        assert(new String(table.getValue(1, second)).equals("v110"));
+        assert(new String(table.getValue(1)).equals("uncommitted"));
+        assert(table.getValue(2, second) == null);
+        //Everything between the two snapshots is only kept for the first one.
+        assert(table.versionCount(1) == 12);
+
+        table.closeSnapshot(first);
+        assert(table.versionCount(1) == 2);
+        assert(new String(table.getValue(1, second)).equals("v110"));
+        table.publish(201);
+        table.closeSnapshot(second);
+        assert(table.versionCount(1) == 1);
+    }
+}
@@ -1,5 +1,7 @@
 package cs245.as3.interfaces;
 
+import java.nio.ByteBuffer;
+
 public interface LogManager {
 	// During testing, all methods of LogManager might throw
         // CrashException, which is a custom RuntimeException subclass we
@@ -34,4 +36,32 @@ public interface LogManager {
 	 * You can assume this occurs atomically. The test code will never call this.
 	 */
 	public void setLogTruncationOffset(int offset);
+
+	/**
+	 * Reads dst.remaining() bytes from the log at the specified position into dst, advancing its position.
+	 * The default implementation goes through readLogRecord(int, int); implementations should copy directly.
+	 */
+	public default void readLogRecord(int offset, ByteBuffer dst) {
+		dst.put(readLogRecord(offset, dst.remaining()));
+	}
+
+	/**
+	 * Atomically appends the remaining bytes of all buffers, in order, as a single record.
+	 * The buffers' positions are advanced to their limits.
+	 * @return the log length prior to the append
+	 */
+	public default int appendLogRecord(ByteBuffer... srcs) {
+		int size = 0;
+		for (ByteBuffer src : srcs) {
+			size += src.remaining();
+		}
+		byte[] record = new byte[size];
+		int position = 0;
+		for (ByteBuffer src : srcs) {
+			int n = src.remaining();
+			src.get(record, position, n);
+			position += n;
+		}
+		return appendLogRecord(record);
+	}
 }
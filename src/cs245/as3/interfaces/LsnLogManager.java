@@ -0,0 +1,63 @@
+package cs245.as3.interfaces;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A log addressed by 64-bit log sequence numbers (LSNs). Same contract as LogManager, but positions
+ * do not wrap or run out after 2 GiB of appends.
+ */
+public interface LsnLogManager {
+
+	/**
+	 * @return the LSN of the end of the log
+	 */
+	public long getEndLsn();
+
+	/**
+	 * Reads from log at the specified position.
+	 * @return bytes in the log in the range [lsn, lsn + size)
+	 */
+	public byte[] read(long lsn, int size);
+
+	/**
+	 * Atomically appends and persists record to the end of the log (implying that all previous appends have succeeded).
+	 * @return the LSN of the end of the log prior to the append
+	 */
+	public long append(byte[] record);
+
+	/**
+	 * @return the current log truncation LSN
+	 */
+	public long getTruncationLsn();
+
+	/**
+	 * Durably stores the LSN as the current log truncation point and truncates (deletes) the log up to that point.
+	 */
+	public void setTruncationLsn(long lsn);
+
+	/**
+	 * Reads dst.remaining() bytes from the log at the specified position into dst, advancing its position.
+	 */
+	public default void read(long lsn, ByteBuffer dst) {
+		dst.put(read(lsn, dst.remaining()));
+	}
+
+	/**
+	 * Atomically appends the remaining bytes of all buffers, in order, as a single record.
+	 * @return the LSN of the end of the log prior to the append
+	 */
+	public default long append(ByteBuffer... srcs) {
+		int size = 0;
+		for (ByteBuffer src : srcs) {
+			size += src.remaining();
+		}
+		byte[] record = new byte[size];
+		int position = 0;
+		for (ByteBuffer src : srcs) {
+			int n = src.remaining();
+			src.get(record, position, n);
+			position += n;
+		}
+		return append(record);
+	}
+}
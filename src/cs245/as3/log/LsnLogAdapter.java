@@ -0,0 +1,65 @@
+package cs245.as3.log;
+
+import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description:
+ * 把 int 偏移的 LogManager 包装成 LsnLogManager，LSN 与偏移一一对应
+ * 底层日志本身仍受 int 偏移限制，超出时抛出 ArithmeticException，而不是在 LSN 上静默回绕
+ */
+public class LsnLogAdapter implements LsnLogManager {
+
+    private final LogManager logManager;
+
+    private LsnLogAdapter(LogManager logManager) {
+        this.logManager = logManager;
+    }
+
+    /**
+     * 已经实现 LsnLogManager 的日志直接返回，不再包装
+     */
+    public static LsnLogManager of(LogManager lm) {
+        if (lm instanceof LsnLogManager) {
+            return (LsnLogManager) lm;
+        }
+        return new LsnLogAdapter(lm);
+    }
+
+    @Override
+    public long getEndLsn() {
+        return logManager.getLogEndOffset();
+    }
+
+    @Override
+    public byte[] read(long lsn, int size) {
+        return logManager.readLogRecord(Math.toIntExact(lsn), size);
+    }
+
+    @Override
+    public long append(byte[] record) {
+        return logManager.appendLogRecord(record);
+    }
+
+    @Override
+    public void read(long lsn, ByteBuffer dst) {
+        logManager.readLogRecord(Math.toIntExact(lsn), dst);
+    }
+
+    @Override
+    public long append(ByteBuffer... srcs) {
+        return logManager.appendLogRecord(srcs);
+    }
+
+    @Override
+    public long getTruncationLsn() {
+        return logManager.getLogTruncationOffset();
+    }
+
+    @Override
+    public void setTruncationLsn(long lsn) {
+        logManager.setLogTruncationOffset(Math.toIntExact(lsn));
+    }
+}
@@ -0,0 +1,436 @@
+package cs245.as3.log;
+
+import cs245.as3.interfaces.LogManager;
+import cs245.as3.interfaces.LsnLogManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * @Description:
+ * 基于文件的日志，日志按 segmentSize 切分为多个段文件，通过 MappedByteBuffer 读写
+ * 日志位置为 64 位 LSN，段文件名为段的起始 LSN，LSN 落在第 lsn / segmentSize 个段中；int 偏移的 LogManager 方法只在 2 GiB 以内可用
+ * log.meta 保存 截断位置(8) | 已持久化的日志末尾(8)，16 字节在一次写入中完成，视为原子写入；重新打开时末尾之后的字节全部忽略
+ * appendLogRecord 先把数据复制到映射区，再等待持久化：同一时刻只有一个线程执行 force()，
+ * 它会把到当前末尾为止所有已复制的追加一起刷盘，等待中的其它追加共享这一次 sync
+ * 读取和 getEndLsn 只能看到已经 force 并写入 log.meta 的末尾，尚未持久化的记录对其它线程不可见
+ * 截断位置之前的段先解除映射再删除，最多保留一个改名复用，避免反复创建和扩展文件；
+ * 正在刷盘的线程可能还持有这些段，解除映射推迟到没有刷盘进行时；无法解除映射时直接删除，不再复用
+ */
+public class MappedLogManager implements LogManager, LsnLogManager, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    private static final String META_FILE = "log.meta";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String SPARE_FILE = "spare" + SEGMENT_SUFFIX + ".tmp";
+
+    // sun.misc.Unsafe.invokeCleaner，用于立即解除映射，不可用时为 null
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    private final FileChannel meta;
+
+    // 从 firstSegment 开始连续的已映射段，受 this 保护
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+
+    private long firstSegment;
+
+    // 已截断但还未解除映射的段，对应 firstRetired 到 firstSegment 之间，受 this 保护
+    private final ArrayDeque<MappedByteBuffer> retired = new ArrayDeque<>();
+
+    private long firstRetired;
+
+    // 已复制到映射区的末尾，受 this 保护
+    private long copiedEnd;
+
+    // 对读取可见的末尾，只在 force 并写入 log.meta 之后前进，受 this 保护
+    private long logEnd;
+
+    private volatile long logTruncationOffset;
+
+    private final Object flushLock = new Object();
+
+    // 已经 force 并写入 log.meta 的末尾，受 flushLock 保护
+    private long durableEnd;
+
+    private boolean flushing;
+
+    // log.meta 中的内容，受 meta 保护
+    private long metaTruncation;
+
+    private long metaEnd;
+
+    private final ByteBuffer metaBuffer = ByteBuffer.allocate(16);
+
+    public MappedLogManager(Path dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedLogManager(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(dir);
+            meta = FileChannel.open(dir.resolve(META_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (meta.size() >= 16) {
+                meta.read(metaBuffer, 0);
+                metaTruncation = metaBuffer.getLong(0);
+                metaEnd = metaBuffer.getLong(8);
+            }
+            logTruncationOffset = metaTruncation;
+            copiedEnd = metaEnd;
+            logEnd = metaEnd;
+            durableEnd = metaEnd;
+            firstSegment = logTruncationOffset / segmentSize;
+            firstRetired = firstSegment;
+            removeStaleSegments();
+            for (long i = firstSegment; i <= logEnd / segmentSize; i++) {
+                segments.add(map(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int getLogEndOffset() {
+        return Math.toIntExact(getEndLsn());
+    }
+
+    @Override
+    public byte[] readLogRecord(int offset, int size) {
+        return read(offset, size);
+    }
+
+    @Override
+    public void readLogRecord(int offset, ByteBuffer dst) {
+        read(offset, dst);
+    }
+
+    @Override
+    public int appendLogRecord(byte[] record) {
+        return Math.toIntExact(append(record));
+    }
+
+    @Override
+    public int appendLogRecord(ByteBuffer... srcs) {
+        return Math.toIntExact(append(srcs));
+    }
+
+    @Override
+    public int getLogTruncationOffset() {
+        return Math.toIntExact(getTruncationLsn());
+    }
+
+    @Override
+    public void setLogTruncationOffset(int offset) {
+        setTruncationLsn(offset);
+    }
+
+    @Override
+    public long getEndLsn() {
+        synchronized (this) {
+            return logEnd;
+        }
+    }
+
+    @Override
+    public byte[] read(long offset, int size) {
+        byte[] record = new byte[size];
+        read(offset, ByteBuffer.wrap(record));
+        return record;
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer dst) {
+        synchronized (this) {
+            int size = dst.remaining();
+            if (offset < logTruncationOffset || offset + size > logEnd) {
+                throw new ArrayIndexOutOfBoundsException("Offset " + (offset + size) + " invalid: log start offset is " + logTruncationOffset +
+                        ", log end offset is " + logEnd);
+            }
+            copy(offset, dst, false);
+        }
+    }
+
+    @Override
+    public long append(byte[] record) {
+        return append(ByteBuffer.wrap(record));
+    }
+
+    @Override
+    public long append(ByteBuffer... srcs) {
+        long prior;
+        long end;
+        synchronized (this) {
+            prior = copiedEnd;
+            end = prior;
+            for (ByteBuffer src : srcs) {
+                int n = src.remaining();
+                copy(end, src, true);
+                end += n;
+            }
+            copiedEnd = end;
+        }
+        awaitDurable(end);
+        return prior;
+    }
+
+    @Override
+    public long getTruncationLsn() {
+        return logTruncationOffset;
+    }
+
+    @Override
+    public void setTruncationLsn(long offset) {
+        synchronized (this) {
+            if (offset > logEnd || offset < logTruncationOffset) {
+                throw new IllegalArgumentException();
+            }
+            // 先持久化截断位置，再删除段文件，删除前崩溃时重新打开会清理残留的段
+            writeMeta(offset, -1);
+            logTruncationOffset = offset;
+            while (firstSegment < offset / segmentSize) {
+                retired.add(segments.remove(0));
+                firstSegment++;
+            }
+            releaseRetired();
+        }
+    }
+
+    /**
+     * 等待之前所有的追加持久化
+     */
+    public void flush() {
+        long end;
+        synchronized (this) {
+            end = copiedEnd;
+        }
+        awaitDurable(end);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            meta.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitDurable(long end) {
+        synchronized (flushLock) {
+            while (durableEnd < end) {
+                if (!flushing) {
+                    flushing = true;
+                    break;
+                }
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (durableEnd >= end) {
+                return;
+            }
+        }
+
+        // 由当前线程负责刷盘，覆盖到此刻为止所有已复制的追加
+        long flushed = 0;
+        try {
+            ArrayList<MappedByteBuffer> dirty = new ArrayList<>();
+            long from;
+            synchronized (flushLock) {
+                from = durableEnd;
+            }
+            long target;
+            synchronized (this) {
+                target = copiedEnd;
+                for (long i = Math.max(from / segmentSize, firstSegment); i <= (target - 1) / segmentSize; i++) {
+                    dirty.add(segments.get((int) (i - firstSegment)));
+                }
+            }
+            for (MappedByteBuffer segment : dirty) {
+                segment.force();
+            }
+            writeMeta(-1, target);
+            // 先对读取公开新的末尾，再唤醒等待的追加，追加返回后调用方一定能读到自己的记录
+            synchronized (this) {
+                logEnd = Math.max(logEnd, target);
+            }
+            flushed = target;
+        } finally {
+            // 刷盘失败时 durableEnd 不前进，等待中的线程会重新发起刷盘
+            synchronized (flushLock) {
+                durableEnd = Math.max(durableEnd, flushed);
+                flushing = false;
+                flushLock.notifyAll();
+            }
+            synchronized (this) {
+                releaseRetired();
+            }
+        }
+    }
+
+    // 没有刷盘进行时解除已截断段的映射并回收文件，调用方持有 this；之后开始的刷盘只会从 segments 中取段，不会再拿到这些段
+    private void releaseRetired() {
+        synchronized (flushLock) {
+            if (flushing) {
+                return;
+            }
+        }
+        while (!retired.isEmpty()) {
+            recycle(firstRetired++, retired.poll());
+        }
+    }
+
+    /**
+     * 更新并持久化 log.meta，参数为 -1 的字段保持不变
+     */
+    private void writeMeta(long truncation, long end) {
+        synchronized (meta) {
+            if (truncation >= 0) {
+                metaTruncation = truncation;
+            }
+            if (end >= 0) {
+                metaEnd = Math.max(metaEnd, end);
+            }
+            metaBuffer.clear();
+            metaBuffer.putLong(metaTruncation);
+            metaBuffer.putLong(metaEnd);
+            metaBuffer.flip();
+            try {
+                meta.write(metaBuffer, 0);
+                meta.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // 在 offset 处读出或写入 buffer 剩余的字节，可能跨越多个段，调用方持有 this
+    private void copy(long offset, ByteBuffer buffer, boolean write) {
+        while (buffer.hasRemaining()) {
+            long index = offset / segmentSize;
+            while (index - firstSegment >= segments.size()) {
+                segments.add(map(firstSegment + segments.size()));
+            }
+            MappedByteBuffer segment = segments.get((int) (index - firstSegment));
+            int position = (int) (offset % segmentSize);
+            int n = Math.min(segmentSize - position, buffer.remaining());
+            segment.limit(position + n);
+            segment.position(position);
+            if (write) {
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + n);
+                segment.put(buffer);
+                buffer.limit(limit);
+            } else {
+                buffer.put(segment);
+            }
+            segment.limit(segmentSize);
+            offset += n;
+        }
+    }
+
+    private MappedByteBuffer map(long index) {
+        Path path = segmentPath(index);
+        Path spare = dir.resolve(SPARE_FILE);
+        try {
+            if (!Files.exists(path) && Files.exists(spare)) {
+                Files.move(spare, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 整段都在截断位置之前的段，解除映射后没有备用段时改名留作备用，否则删除
+    private void recycle(long index, MappedByteBuffer segment) {
+        Path path = segmentPath(index);
+        Path spare = dir.resolve(SPARE_FILE);
+        try {
+            if (!unmap(segment) || Files.exists(spare)) {
+                Files.deleteIfExists(path);
+            } else {
+                Files.move(path, spare, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean unmap(MappedByteBuffer segment) {
+        if (INVOKE_CLEANER == null) {
+            return false;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, segment);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    // 删除截断位置之前或末尾之后残留的段文件
+    private void removeStaleSegments() throws IOException {
+        long lastSegment = logEnd / segmentSize;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) / segmentSize;
+                if (index < firstSegment || index > lastSegment) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return dir.resolve(String.format("%019d%s", index * segmentSize, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,48 @@
+package cs245.as3.store;
+
+import cs245.as3.interfaces.StorageManager.TaggedValue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description:
+ * 线程安全的已提交值索引，key -> 不可变的 TaggedValue，读不加锁，总能看到同一次提交的 tag 和 value
+ * 同一个 key 的 put 由调用方按提交顺序串行执行
+ */
+public class ConcurrentValueTable implements ValueTable {
+
+    private final ConcurrentHashMap<Long, TaggedValue> values = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] getValue(long key) {
+        TaggedValue tv = values.get(key);
+        return tv != null ? tv.value : null;
+    }
+
+    @Override
+    public long getTag(long key) {
+        TaggedValue tv = values.get(key);
+        return tv != null ? tv.tag : NO_TAG;
+    }
+
+    @Override
+    public int read(long key, ByteBuffer dst) {
+        TaggedValue tv = values.get(key);
+        if (tv == null) {
+            return -1;
+        }
+        dst.put(tv.value);
+        return tv.value.length;
+    }
+
+    @Override
+    public void put(long key, long tag, byte[] value) {
+        values.put(key, new TaggedValue(tag, value));
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+}
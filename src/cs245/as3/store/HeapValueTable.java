@@ -0,0 +1,54 @@
+package cs245.as3.store;
+
+import cs245.as3.util.LongHashMap;
+import cs245.as3.util.LongLongHashMap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @Description:
+ * 堆内的已提交值索引，value 和 tag 分别存放在两个开放寻址表中，
+ * 更新已有 key 时原地替换，提交路径上不再为每个 key 分配 TaggedValue
+ */
+public class HeapValueTable implements ValueTable {
+
+    private final LongHashMap<byte[]> values;
+
+    private final LongLongHashMap tags;
+
+    public HeapValueTable() {
+        values = new LongHashMap<>();
+        tags = new LongLongHashMap(NO_TAG);
+    }
+
+    @Override
+    public byte[] getValue(long key) {
+        return values.get(key);
+    }
+
+    @Override
+    public long getTag(long key) {
+        return tags.get(key);
+    }
+
+    @Override
+    public int read(long key, ByteBuffer dst) {
+        byte[] value = values.get(key);
+        if (value == null) {
+            return -1;
+        }
+        dst.put(value);
+        return value.length;
+    }
+
+    @Override
+    public void put(long key, long tag, byte[] value) {
+        values.put(key, value);
+        tags.put(key, tag);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,181 @@
+package cs245.as3.store;
+
+import cs245.as3.util.LongLongHashMap;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @Description:
+ * 堆外的已提交值索引，tag 和 value 存放在 direct ByteBuffer 组成的 slab 中，堆上只剩 key -> 槽位句柄 的索引，
+ * 大量 key 时 GC 不需要追踪数百万个小对象
+ * 槽位格式，0-7：tag  |  8-11：value size  |  12 - ：value
+ * 槽位按 2 的幂分为若干大小等级，从当前 slab 顺序分配；释放的槽位按等级挂到空闲链表上（链表指针写在槽位前 8 字节）
+ * 同一个 key 的新值和旧值大小等级相同时原地覆盖
+ * 非线程安全
+ */
+public class OffHeapValueTable implements ValueTable {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int SLOT_HEADER = 12;
+
+    // 最小的槽位为 16 字节
+    private static final int MIN_SLOT_SHIFT = 4;
+
+    private static final long NO_HANDLE = -1;
+
+    private final int slabSize;
+
+    private final ArrayList<ByteBuffer> slabs = new ArrayList<>();
+
+    // 当前 slab 已分配的字节数
+    private int currentUsed;
+
+    // 每个大小等级的空闲链表头
+    private final long[] freeLists = new long[32 - MIN_SLOT_SHIFT];
+
+    // key -> 槽位句柄，句柄高 32 位为 slab 下标，低 32 位为 slab 内偏移
+    private final LongLongHashMap index = new LongLongHashMap(NO_HANDLE);
+
+    public OffHeapValueTable() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapValueTable(int slabSize) {
+        this.slabSize = slabSize;
+        Arrays.fill(freeLists, NO_HANDLE);
+    }
+
+    @Override
+    public byte[] getValue(long key) {
+        long handle = index.get(key);
+        if (handle == NO_HANDLE) {
+            return null;
+        }
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        byte[] value = new byte[slab.getInt(offset + 8)];
+        slab.position(offset + SLOT_HEADER);
+        slab.get(value);
+        return value;
+    }
+
+    @Override
+    public long getTag(long key) {
+        long handle = index.get(key);
+        return handle == NO_HANDLE ? NO_TAG : slab(handle).getLong(offset(handle));
+    }
+
+    @Override
+    public int read(long key, ByteBuffer dst) {
+        long handle = index.get(key);
+        if (handle == NO_HANDLE) {
+            return -1;
+        }
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        int length = slab.getInt(offset + 8);
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        // 在副本上收窄 limit，共享的 slab 保持不变
+        ByteBuffer value = slab.duplicate();
+        value.position(offset + SLOT_HEADER);
+        value.limit(offset + SLOT_HEADER + length);
+        dst.put(value);
+        return length;
+    }
+
+    /**
+     * 不复制数据，返回 key 当前值的只读视图；该 key 下一次 put 之后视图内容不再有效
+     * @return key 不存在时返回 null
+     */
+    public ByteBuffer view(long key) {
+        long handle = index.get(key);
+        if (handle == NO_HANDLE) {
+            return null;
+        }
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + SLOT_HEADER);
+        view.limit(offset + SLOT_HEADER + slab.getInt(offset + 8));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void put(long key, long tag, byte[] value) {
+        int sizeClass = sizeClass(SLOT_HEADER + value.length);
+        long handle = index.get(key);
+        if (handle == NO_HANDLE) {
+            handle = allocate(sizeClass);
+            index.put(key, handle);
+        } else {
+            int oldSizeClass = sizeClass(SLOT_HEADER + slab(handle).getInt(offset(handle) + 8));
+            if (oldSizeClass != sizeClass) {
+                free(handle, oldSizeClass);
+                handle = allocate(sizeClass);
+                index.put(key, handle);
+            }
+        }
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        slab.putLong(offset, tag);
+        slab.putInt(offset + 8, value.length);
+        slab.position(offset + SLOT_HEADER);
+        slab.put(value);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return 所有 slab 占用的堆外内存字节数
+     */
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer slab : slabs) {
+            bytes += slab.capacity();
+        }
+        return bytes;
+    }
+
+    private long allocate(int sizeClass) {
+        long handle = freeLists[sizeClass];
+        if (handle != NO_HANDLE) {
+            freeLists[sizeClass] = slab(handle).getLong(offset(handle));
+            return handle;
+        }
+        int size = 1 << (sizeClass + MIN_SLOT_SHIFT);
+        if (slabs.isEmpty() || slabs.get(slabs.size() - 1).capacity() - currentUsed < size) {
+            // 当前 slab 剩余空间不足时直接开新 slab，超过 slab 大小的值单独占一个 slab
+            slabs.add(ByteBuffer.allocateDirect(Math.max(slabSize, size)));
+            currentUsed = 0;
+        }
+        handle = ((long) (slabs.size() - 1) << 32) | currentUsed;
+        currentUsed += size;
+        return handle;
+    }
+
+    private void free(long handle, int sizeClass) {
+        slab(handle).putLong(offset(handle), freeLists[sizeClass]);
+        freeLists[sizeClass] = handle;
+    }
+
+    private ByteBuffer slab(long handle) {
+        return slabs.get((int) (handle >>> 32));
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    private static int sizeClass(int slotSize) {
+        return Math.max(0, 32 - Integer.numberOfLeadingZeros(slotSize - 1) - MIN_SLOT_SHIFT);
+    }
+}
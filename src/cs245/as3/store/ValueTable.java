@@ -0,0 +1,46 @@
+package cs245.as3.store;
+
+import cs245.as3.interfaces.StorageManager.TaggedValue;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * @Description:
+ * 已提交值的索引，每个 key 保存最新的 tag 和 value
+ */
+public interface ValueTable {
+
+    // key 不存在时 getTag 的返回值
+    long NO_TAG = -1;
+
+    /**
+     * @return key 的最新值，不存在时返回 null
+     */
+    byte[] getValue(long key);
+
+    /**
+     * @return key 最新值的 tag，不存在时返回 NO_TAG
+     */
+    long getTag(long key);
+
+    /**
+     * 把 key 的值复制到 dst 的当前位置
+     * @return 值的长度，key 不存在时返回 -1 且不修改 dst
+     * @throws java.nio.BufferOverflowException dst 剩余空间放不下值时抛出，dst 不被修改
+     */
+    int read(long key, ByteBuffer dst);
+
+    void put(long key, long tag, byte[] value);
+
+    int size();
+
+    /**
+     * 导入 StorageManager.readStoredTable() 的返回值
+     */
+    default void load(Map<Long, TaggedValue> stored) {
+        for (Map.Entry<Long, TaggedValue> entry : stored.entrySet()) {
+            put(entry.getKey(), entry.getValue().tag, entry.getValue().value);
+        }
+    }
+}
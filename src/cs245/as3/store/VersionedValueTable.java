@@ -0,0 +1,173 @@
+package cs245.as3.store;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description:
+ * 多版本的已提交值索引，每个 key 保存一条按 tag 从新到旧的版本链，供快照读使用
+ * 快照是一个可见上界：tag 小于快照的版本对它可见，快照读返回链上第一个可见的版本；读不加锁
+ * 提交把版本挂到链头后再 publish(tag + 1)，之后打开的快照才能看到它，一个事务的多个写操作对快照同时可见
+ * 最老的活跃快照（没有活跃快照时为当前可见上界）能看到的版本之前的旧版本不再被任何快照需要，
+ * 写入 key 时顺带回收该 key 的旧版本，最老的快照关闭时回收所有仍有旧版本的 key
+ * 同一个 key 的 put 由调用方按提交顺序串行执行
+ */
+public class VersionedValueTable implements ValueTable {
+
+    private static class Version {
+        final long tag;
+        final byte[] value;
+        // 更老的版本，回收时置为 null
+        volatile Version older;
+
+        Version(long tag, byte[] value, Version older) {
+            this.tag = tag;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    // key -> 最新的版本
+    private final ConcurrentHashMap<Long, Version> heads = new ConcurrentHashMap<>();
+
+    // 仍保留着旧版本的 key
+    private final Set<Long> chained = ConcurrentHashMap.newKeySet();
+
+    // 新打开的快照取这个值，tag 小于它的版本都已提交完毕
+    private volatile long visibleBound;
+
+    // 活跃快照 -> 打开次数，受 this 保护
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    @Override
+    public byte[] getValue(long key) {
+        Version head = heads.get(key);
+        return head != null ? head.value : null;
+    }
+
+    /**
+     * @return 快照 snapshot 能看到的 key 的最新值，不存在时返回 null
+     */
+    public byte[] getValue(long key, long snapshot) {
+        Version version = visible(heads.get(key), snapshot);
+        return version != null ? version.value : null;
+    }
+
+    @Override
+    public long getTag(long key) {
+        Version head = heads.get(key);
+        return head != null ? head.tag : NO_TAG;
+    }
+
+    /**
+     * @return 快照 snapshot 能看到的 key 的最新版本的 tag，不存在时返回 NO_TAG
+     */
+    public long getTag(long key, long snapshot) {
+        Version version = visible(heads.get(key), snapshot);
+        return version != null ? version.tag : NO_TAG;
+    }
+
+    @Override
+    public int read(long key, ByteBuffer dst) {
+        return read(heads.get(key), dst);
+    }
+
+    public int read(long key, long snapshot, ByteBuffer dst) {
+        return read(visible(heads.get(key), snapshot), dst);
+    }
+
+    @Override
+    public void put(long key, long tag, byte[] value) {
+        Version head = new Version(tag, value, heads.get(key));
+        heads.put(key, head);
+        prune(key, head, oldestSnapshot());
+    }
+
+    @Override
+    public int size() {
+        return heads.size();
+    }
+
+    /**
+     * tag 小于 bound 的版本对之后打开的快照可见
+     */
+    public void publish(long bound) {
+        visibleBound = Math.max(visibleBound, bound);
+    }
+
+    public synchronized long openSnapshot() {
+        long snapshot = visibleBound;
+        snapshots.merge(snapshot, 1, Integer::sum);
+        return snapshot;
+    }
+
+    public void closeSnapshot(long snapshot) {
+        long oldest;
+        synchronized (this) {
+            boolean wasOldest = snapshot == snapshots.firstKey();
+            if (snapshots.merge(snapshot, -1, Integer::sum) == 0) {
+                snapshots.remove(snapshot);
+            }
+            if (!wasOldest) {
+                return;
+            }
+            oldest = oldestSnapshot();
+        }
+        for (Long key : chained) {
+            Version head = heads.get(key);
+            if (head != null) {
+                prune(key, head, oldest);
+            }
+        }
+    }
+
+    /**
+     * @return key 链上的版本数
+     */
+    public int versionCount(long key) {
+        int n = 0;
+        for (Version version = heads.get(key); version != null; version = version.older) {
+            n++;
+        }
+        return n;
+    }
+
+    // 之后所有快照都不小于这个值
+    private synchronized long oldestSnapshot() {
+        return snapshots.isEmpty() ? visibleBound : Math.min(snapshots.firstKey(), visibleBound);
+    }
+
+    private static Version visible(Version version, long snapshot) {
+        while (version != null && version.tag >= snapshot) {
+            version = version.older;
+        }
+        return version;
+    }
+
+    private static int read(Version version, ByteBuffer dst) {
+        if (version == null) {
+            return -1;
+        }
+        dst.put(version.value);
+        return version.value.length;
+    }
+
+    // 最老的快照能看到的版本保留，更老的版本断开
+    private void prune(long key, Version head, long oldest) {
+        Version version = visible(head, oldest);
+        if (version != null) {
+            version.older = null;
+        }
+        if (head.older == null) {
+            chained.remove(key);
+            // 先移除再检查：期间写入的新版本把 head 挂在自己后面，此时重新登记，交给之后的回收处理
+            if (heads.get(key) != head) {
+                chained.add(key);
+            }
+        } else {
+            chained.add(key);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cs245.as3.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @Description:
+ * long 为 key 的开放寻址哈希表（线性探测），用于保存已提交的值
+ * key 直接存放在 long[] 中，get / put 不装箱、不创建 Entry 节点，读取路径上没有任何对象分配
+ * value 不能为 null，null 表示该槽位为空；删除时向前回移后续元素，不使用墓碑
+ * 非线程安全
+ */
+public class LongHashMap<V> {
+
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    // 装载因子上限 3/4
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private int mask;
+
+    private int size;
+
+    private int resizeAt;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * 导入一个普通的 Map，例如 StorageManager.readStoredTable() 的返回值
+     */
+    public LongHashMap(Map<Long, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = slot(key);
+        Object value;
+        while ((value = values[i]) != null) {
+            if (keys[i] == key) {
+                return (V) value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return 该 key 原来的值，不存在时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LongHashMap does not store null values");
+        }
+        int i = slot(key);
+        Object old;
+        while ((old = values[i]) != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return (V) old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            allocate(values.length << 1);
+        }
+        return null;
+    }
+
+    public void putAll(Map<Long, ? extends V> map) {
+        for (Map.Entry<Long, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        Object old;
+        while ((old = values[i]) != null) {
+            if (keys[i] == key) {
+                shiftBack(i);
+                size--;
+                return (V) old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    // 删除槽位 i 后，把探测链上后续的元素前移，保证查找不会提前遇到空槽
+    private void shiftBack(int i) {
+        int next = (i + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next]);
+            // home 不在 (i, next] 区间内时，该元素可以移到 i
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[i] = null;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) ((long) capacity * LOAD_NUMERATOR / LOAD_DENOMINATOR);
+
+        if (oldValues != null) {
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int j = slot(oldKeys[i]);
+                    while (values[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) expectedSize * LOAD_DENOMINATOR / LOAD_NUMERATOR + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,166 @@
+package cs245.as3.util;
+
+import java.util.Arrays;
+
+/**
+ * @Description:
+ * long -> long 的开放寻址哈希表（线性探测），key 和 value 都不装箱
+ * 不存在的 key 返回构造时指定的 missingValue；删除时向前回移后续元素，不使用墓碑
+ * 非线程安全
+ */
+public class LongLongHashMap {
+
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final long missingValue;
+
+    private long[] keys;
+
+    private long[] values;
+
+    private boolean[] used;
+
+    private int mask;
+
+    private int size;
+
+    private int resizeAt;
+
+    public LongLongHashMap(long missingValue) {
+        this.missingValue = missingValue;
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(long key) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return key 原来的值，不存在时返回 missingValue
+     */
+    public long put(long key, long value) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                long old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            allocate(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    /**
+     * @return key 原来的值，不存在时返回 missingValue
+     */
+    public long remove(long key) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                long old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * 清空所有元素，保留已分配的容量
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    // 删除槽位 i 后，把探测链上后续的元素前移，保证查找不会提前遇到空槽
+    private void shiftBack(int i) {
+        int next = (i + 1) & mask;
+        while (used[next]) {
+            int home = slot(keys[next]);
+            // home 不在 (i, next] 区间内时，该元素可以移到 i
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[i] = false;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        // 装载因子上限 3/4
+        resizeAt = capacity / 4 * 3;
+
+        if (oldUsed != null) {
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i]) {
+                    int j = slot(oldKeys[i]);
+                    while (used[j]) {
+                        j = (j + 1) & mask;
+                    }
+                    used[j] = true;
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+}